@@ -0,0 +1,103 @@
+package com.bittle.SIC;
+
+import com.bittle.SIC.utils.Limits;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// whole passes over the sample sources and generated programs
+// input: a source file (looked up in . and ..) or a number of lines to generate,
+// generated programs are assembled with Limits.LARGE
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AssemblerBenchmark {
+    @Param({"source.asm", "source2.asm", "10000", "100000", "1000000", "10000000"})
+    public String input;
+
+    String sourceFile;
+    String outputDirectory;
+    private Assembler afterPassOne;
+    private Assembler afterPassOneParallel;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File directory = Files.createTempDirectory("sic-bench").toFile();
+        outputDirectory = directory.getPath();
+        sourceFile = resolve(input, directory);
+
+        afterPassOne = newAssembler();
+        afterPassOne.pass1();
+        afterPassOneParallel = newAssembler();
+        afterPassOneParallel.setThreads(Runtime.getRuntime().availableProcessors());
+        afterPassOneParallel.pass1();
+    }
+
+    static String resolve(String input, File directory) throws IOException {
+        if (input.matches("\\d+"))
+            return ProgramGenerator.generate(Integer.parseInt(input), directory).getPath();
+        for (String parent : new String[]{".", ".."}) {
+            File file = new File(parent, input);
+            if (file.isFile())
+                return file.getPath();
+        }
+        throw new IOException("COULDN'T FIND " + input);
+    }
+
+    Assembler newAssembler() {
+        Assembler assembler = new Assembler(sourceFile, outputDirectory);
+        assembler.setVerbose(false);
+        if (input.matches("\\d+"))
+            assembler.setLimits(Limits.LARGE);
+        return assembler;
+    }
+
+    @Benchmark
+    public Assembler pass1() throws IOException {
+        Assembler assembler = newAssembler();
+        assembler.pass1();
+        return assembler;
+    }
+
+    @Benchmark
+    public Assembler pass1MemoryMapped() throws IOException {
+        Assembler assembler = newAssembler();
+        assembler.setMemoryMapped(true);
+        assembler.pass1();
+        return assembler;
+    }
+
+    // sized in chunks on every core, worth it from Assembler.PARALLEL_LINES lines
+    @Benchmark
+    public Assembler pass1Parallel() throws IOException {
+        Assembler assembler = newAssembler();
+        assembler.setThreads(Runtime.getRuntime().availableProcessors());
+        assembler.pass1();
+        return assembler;
+    }
+
+    // pass 2 only reads what pass 1 left, so it can run again on the same assembler
+    @Benchmark
+    public Assembler pass2() throws IOException {
+        afterPassOne.pass2();
+        return afterPassOne;
+    }
+
+    // pass 2 encoding on every core, worth it from Assembler.PARALLEL_LINES lines
+    @Benchmark
+    public Assembler pass2Parallel() throws IOException {
+        afterPassOneParallel.pass2();
+        return afterPassOneParallel;
+    }
+
+    @Benchmark
+    public boolean assemble() throws IOException {
+        return newAssembler().assemble();
+    }
+}
@@ -0,0 +1,112 @@
+package com.bittle.SIC;
+
+import com.bittle.SIC.utils.CoalescingTextPacker;
+import com.bittle.SIC.utils.Line;
+import com.bittle.SIC.utils.Opcode;
+import com.bittle.SIC.utils.OpcodeTable;
+import com.bittle.SIC.utils.TextPacker;
+import com.bittle.SIC.utils.Tokenizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// the per line helpers on the hot path, each over every line of source.asm
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelperBenchmark {
+    private List<String> sourceLines;
+    private String[] mnemonics;
+    private List<Line> lines;
+    private Assembler assembler;
+    private long[] addresses;
+    private String[] objectCodes;
+    private final TextPacker packer = new CoalescingTextPacker();
+    private final Tokenizer tokenizer = new Tokenizer();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File directory = Files.createTempDirectory("sic-bench").toFile();
+        String sourceFile = AssemblerBenchmark.resolve("source.asm", directory);
+        sourceLines = Files.readAllLines(new File(sourceFile).toPath());
+
+        mnemonics = new String[sourceLines.size()];
+        for (int x = 0; x < sourceLines.size(); x++) {
+            tokenizer.scan(sourceLines.get(x));
+            mnemonics[x] = tokenizer.opcode();
+        }
+
+        assembler = new Assembler(sourceFile, directory.getPath());
+        assembler.setVerbose(false);
+        assembler.pass1();
+        lines = assembler.getLines();
+
+        addresses = new long[lines.size()];
+        objectCodes = new String[lines.size()];
+        for (int x = 0; x < lines.size(); x++) {
+            Line line = lines.get(x);
+            boolean encoded = line.isInstruction() || line.getOpcode() == OpcodeTable.BYTE
+                    || line.getOpcode() == OpcodeTable.WORD;
+            addresses[x] = line.getAddress();
+            objectCodes[x] = (encoded) ? assembler.getObjectCode(line) : "";
+        }
+    }
+
+    // what breakUp() used to do
+    @Benchmark
+    public void tokenize(Blackhole blackhole) {
+        for (String line : sourceLines) {
+            tokenizer.scan(line);
+            blackhole.consume(tokenizer.operandEnd());
+        }
+    }
+
+    // what searchOpcode() used to do
+    @Benchmark
+    public void searchOpcode(Blackhole blackhole) {
+        for (String mnemonic : mnemonics) {
+            Opcode opcode = OpcodeTable.search(mnemonic);
+            blackhole.consume(opcode);
+        }
+    }
+
+    @Benchmark
+    public void getObjectCode(Blackhole blackhole) {
+        for (Line line : lines) {
+            if (line.isInstruction() || line.getOpcode() == OpcodeTable.BYTE || line.getOpcode() == OpcodeTable.WORD)
+                blackhole.consume(assembler.getObjectCode(line));
+        }
+    }
+
+    @Benchmark
+    public int byteValue() {
+        return assembler.byteValue("C'EOF'") + assembler.byteValue("X'F1'");
+    }
+
+    @Benchmark
+    public String textRecord() {
+        return assembler.textRecord(0x1000, "1410334820390010362810303010154820613C100300102A0C103900102D");
+    }
+
+    // the object code of every line into T records, as pass 2 hands it over
+    @Benchmark
+    public void packTextRecords(final Blackhole blackhole) throws IOException {
+        TextPacker.Records records = new TextPacker.Records() {
+            @Override
+            public void record(long address, CharSequence objectCode) {
+                blackhole.consume(objectCode.length());
+            }
+        };
+        for (int x = 0; x < objectCodes.length; x++)
+            packer.add(addresses[x], objectCodes[x], records);
+        packer.flush(records);
+    }
+}
@@ -0,0 +1,56 @@
+package com.bittle.SIC;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+// writes a synthetic SIC program of a given number of lines, a mix of what real sources have:
+// labels, indexed and plain operands, forward references, BYTE/WORD/RESW/RESB and comments.
+// Instructions are format 4 (+OPCODE) so references past the 32K SIC limit still assemble with Limits.LARGE
+public class ProgramGenerator {
+    private static final String[] OPCODES = {"LDA", "STA", "LDX", "COMP", "JEQ", "ADD", "SUB", "TIX", "JLT", "STCH"};
+
+    public static File generate(int lines, File directory) throws IOException {
+        File file = new File(directory, "generated" + lines + ".asm");
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writer.write("GEN     START   1000\t\tGENERATED PROGRAM\n");
+            for (int x = 1; x < lines - 1; x++) {
+                writer.write(line(x));
+                writer.write('\n');
+            }
+            writer.write("\tEND     L1\n");
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static String label(int x) {
+        return "L" + Integer.toString(x, 36).toUpperCase();
+    }
+
+    private static String line(int x) {
+        // every 8th line defines a label, the rest refer back (or one ahead) to one
+        int labelLine = x - (x % 8);
+        String target = label(Math.max(8, labelLine));
+        switch (x % 32) {
+            case 1:
+                return ".\tCOMMENT LINE " + x;
+            case 8:
+                return label(x) + "  BYTE    C'EOF'\t\tCHARACTER CONSTANT";
+            case 16:
+                return label(x) + "  WORD    " + (x % 4096);
+            case 24:
+                return label(x) + "  RESW    1";
+            case 31:
+                return "\tRESB    3";
+            default:
+                String operand = (x % 5 == 0) ? target + ",X" : target;
+                if (x % 8 == 0)
+                    return label(x) + "  +" + OPCODES[x % OPCODES.length] + "    " + operand;
+                return "\t+" + OPCODES[x % OPCODES.length] + "    " + operand + "\t\tLINE " + x;
+        }
+    }
+}
@@ -1,24 +1,54 @@
 package com.bittle.SIC;
 
+import com.bittle.SIC.object.ObjectConverter;
+import com.bittle.SIC.object.ObjectFile;
+import com.bittle.SIC.utils.AssemblyCache;
+import com.bittle.SIC.utils.CachedLine;
+import com.bittle.SIC.utils.CoalescingTextPacker;
 import com.bittle.SIC.utils.Error;
+import com.bittle.SIC.utils.Expression;
+import com.bittle.SIC.utils.ForwardReferences;
+import com.bittle.SIC.utils.Limits;
+import com.bittle.SIC.utils.Line;
+import com.bittle.SIC.utils.LineSource;
+import com.bittle.SIC.utils.LiteralTable;
+import com.bittle.SIC.utils.MacroProcessor;
+import com.bittle.SIC.utils.MappedSource;
+import com.bittle.SIC.utils.Metrics;
 import com.bittle.SIC.utils.Opcode;
+import com.bittle.SIC.utils.OpcodeTable;
+import com.bittle.SIC.utils.RecordWriter;
+import com.bittle.SIC.utils.Section;
+import com.bittle.SIC.utils.SymbolTable;
+import com.bittle.SIC.utils.TextPacker;
+import com.bittle.SIC.utils.Tokenizer;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.IntStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 // LABEL    OPCODE  OPERAND
 public class Assembler {
     private String SOURCE_FILE;
-    private final String INTERMEDIATE_FILE = "intermediate";
+    private final String INTERMEDIATE_FILE;
+    private final String LISTING_FILE;
+    private final String OBJECT_FILE;
+    private final String BINARY_FILE;
 
-    private final Error[] ERRTAB = {
+    // errors are kept per line as a bitmask, bit x set = ERRTAB[x]
+    private static final Error[] ERRTAB = {
             new Error("Duplicate label"),
             new Error("Illegal label"), /* [0] != Alpha || label != AlphaNum */
             new Error("Missing or illegal operand on START directive"), /* isn't hex number or doesn't exist*/
             new Error("Missing or illegal operand on END directive"),
-            new Error("Too many symbols in source program"), /* > 500 */
+            new Error("Too many symbols in source program"), /* > 500, see Limits */
             new Error("Program too long"), /* > 32768 */                    /* LINE 5 */
             new Error("Symbol too long"), /* Symbol len > 6 */
             new Error("Illegal BYTE directive"), /* !c || !x || not c' || not x' */
@@ -39,42 +69,128 @@ public class Assembler {
             new Error("Missing Program Name"),
             /* pass 2 */
             new Error("Undefined symbol in operand "),
-
+            /* SIC/XE */
+            new Error("Displacement out of range, use format 4"),
+            new Error("Illegal register in operand"),                       /* LINE 25 */
+            new Error("Indexing can't be used with immediate or indirect"),
+            new Error("Illegal format 4 instruction"),
+            new Error("Address out of range for SIC instruction"), /* > 0x7FFF */
+            /* control sections */
+            new Error("Illegal EXTDEF or EXTREF operand"),
+            new Error("External symbol only allowed in format 4 or WORD"),  /* LINE 30 */
+            /* literals */
+            new Error("Illegal literal"), /* not C'...' or X'...', see byteValue() */
+            /* expressions */
+            new Error("Illegal expression"), /* see Expression */
+            new Error("Missing label on EQU"),
+            /* program blocks */
+            new Error("Illegal program block name"),
     };
+    // kinds of errors, Metrics and AssemblerStats keep a count of each
+    public static final int ERROR_TYPES = ERRTAB.length;
+    // names in the object file: program and section names, external symbols
+    private static final int NAME_LENGTH = 6;
+
+    private Limits limits = Limits.CLASSIC;
+    // open addressing table for symbols since lots of insertions and retrievals
+    private SymbolTable symbolTable = new SymbolTable(limits.expectedSymbols());
+
+    // pass 1 output, read straight from memory by pass 2
+    private final List<Line> lines = new ArrayList<>();
+    // LITTAB, filled by pass 1. Pass 2 counts the pools closed so far to find a line's literal
+    private LiteralTable literals = new LiteralTable();
+    private int literalPool = 0;
+    // operand expressions, with the symbols of the section being assembled
+    private final Expression expression = new Expression(new Expression.Symbols() {
+        @Override
+        public int value(CharSequence source, int start, int end) {
+            return symbolTable.get(source, start, end);
+        }
 
-    private final Opcode[] OPTAB = {
-            new Opcode("ADD", 0x18),    // 0
-            new Opcode("AND", 0x58),
-            new Opcode("COMP", 0x28),
-            new Opcode("DIV", 0x24),
-            new Opcode("J", 0x3C),
-            new Opcode("JEQ", 0x30),    // 5
-            new Opcode("JGT", 0x34),
-            new Opcode("JLT", 0x38),
-            new Opcode("JSUB", 0x48),
-            new Opcode("LDA", 0x00),
-            new Opcode("LDCH", 0x50),   // 10
-            new Opcode("LDL", 0x08),
-            new Opcode("LDX", 0x04),
-            new Opcode("MUL", 0x20),
-            new Opcode("OR", 0x44),
-            new Opcode("RD", 0xD8),     // 15
-            new Opcode("RSUB", 0x4C),
-            new Opcode("STA", 0x0C),
-            new Opcode("STCH", 0x54),
-            new Opcode("STL", 0x14),
-            new Opcode("STX", 0x10),    // 20
-            new Opcode("SUB", 0x1C),
-            new Opcode("TD", 0xE0),
-            new Opcode("TIX", 0x2C),
-            new Opcode("WD", 0xDC),     // 24
-    };
+        @Override
+        public boolean isAbsolute(CharSequence source, int start, int end) {
+            return Assembler.this.isAbsolute(source, start, end);
+        }
 
-    // hash map for symbol since lots of insertions and retrievals
-    private final HashMap<String, Long> symbolTable = new HashMap<>();
+        @Override
+        public boolean isExternal(CharSequence source, int start, int end) {
+            return Assembler.this.isExternal(source, start, end);
+        }
+
+        @Override
+        public int block(CharSequence source, int start, int end) {
+            return (section == null) ? 0 : section.blockOf(source, start, end);
+        }
+    });
+    private final ForwardReferences forwardReferences = new ForwardReferences();
+    private long orgReturn = -1;        /* where ORG without an operand goes back to, -1 if no ORG in effect */
+    private final List<int[]> blockPools = new ArrayList<>();   /* {pool, block} of the section's pools in a block */
+    private long programErrors = 0;
+    private long errors = 0;            /* errors of the line being assembled */
+    private Tokenizer tokenizer = new Tokenizer();
+    private boolean dumpIntermediate = false;
+    private boolean memoryMapped = false;
+    private boolean binaryObject = false;
+    private RecordWriter listingWriter;
+    private RecordWriter objectWriter;
+    private boolean verbose = true;
+    private boolean hasErrors = false;
+    private long sourceLines = 0;
+
+    // incremental reassembly, all unused (null) unless a cache is set
+    private AssemblyCache cache;
+    private String contentHash;
+    private AssemblyCache.Entry previous;   /* last entry of this source, if it changed since */
+    private List<CachedLine> cachedLines;   /* the records of the next entry */
+    private long hashSeed;
+    private long objectHash;                /* of everything pass 2 makes the object program from */
+
+    private Metrics metrics;                /* null unless collecting, see setMetrics */
+
+    // both passes run on this many threads once a program has PARALLEL_LINES lines,
+    // see passOneInParallel() and encodeInParallel()
+    private static final int PARALLEL_LINES = 4096;
+    private int threads = 1;
 
     public Assembler(String sourceFile) {
         SOURCE_FILE = sourceFile;
+        INTERMEDIATE_FILE = "intermediate";
+        LISTING_FILE = "listing";
+        OBJECT_FILE = "object.obj";
+        BINARY_FILE = "object" + ObjectFile.BINARY_EXTENSION;
+    }
+
+    // outputs go in outputDirectory (next to the source if null), named after the source file
+    public Assembler(String sourceFile, String outputDirectory) {
+        SOURCE_FILE = sourceFile;
+        File source = new File(sourceFile);
+        String name = source.getName();
+        if (name.lastIndexOf('.') > 0)
+            name = name.substring(0, name.lastIndexOf('.'));
+        File directory = (outputDirectory == null) ? source.getAbsoluteFile().getParentFile() : new File(outputDirectory);
+        INTERMEDIATE_FILE = new File(directory, name + ".int").getPath();
+        LISTING_FILE = new File(directory, name + ".lst").getPath();
+        OBJECT_FILE = new File(directory, name + ".obj").getPath();
+        BINARY_FILE = new File(directory, name + ObjectFile.BINARY_EXTENSION).getPath();
+    }
+
+    // a pass 2 worker: encodes lines of parent once its pass 1 is done, writes no files
+    private Assembler(Assembler parent) {
+        SOURCE_FILE = parent.SOURCE_FILE;
+        INTERMEDIATE_FILE = parent.INTERMEDIATE_FILE;
+        LISTING_FILE = parent.LISTING_FILE;
+        OBJECT_FILE = parent.OBJECT_FILE;
+        BINARY_FILE = parent.BINARY_FILE;
+        limits = parent.limits;
+        symbolTable = parent.symbolTable;
+        verbose = false;
+        PROGRAM_NAME = parent.PROGRAM_NAME;
+        STARTING_ADDRESS = parent.STARTING_ADDRESS;
+        PROGRAM_LENGTH = parent.PROGRAM_LENGTH;
+        xeProgram = parent.xeProgram;
+        relocatable = parent.relocatable;
+        literals = parent.literals;
+        sections.addAll(parent.sections);
     }
 
     private String PROGRAM_NAME = "";
@@ -82,349 +198,1396 @@ public class Assembler {
     private long STARTING_ADDRESS = 0x0;
     private long PROGRAM_LENGTH = 0x0;
 
-    public void assemble() {
+    // set in pass 1 once any SIC/XE feature is used, until then plain SIC object code is made
+    private boolean xeProgram = false;
+    private long baseRegister = -1;     /* -1 if no BASE in effect */
+
+    // control sections, the first one is the program. symbolTable is the one of the section being assembled
+    private final List<Section> sections = new ArrayList<>();
+    private Section section;
+    private int sectionNumber = 0;      /* index of section in sections */
+    // START 0 or more than one section: every address in the object code gets an M record
+    private boolean relocatable = false;
+    private final StringBuilder modificationRecords = new StringBuilder();  /* of the section being written */
+    private TextPacker textPacker = new CoalescingTextPacker();
+    // T records go to the object file as textPacker makes them
+    private final TextPacker.Records textRecords = new TextPacker.Records() {
+        @Override
+        public void record(long address, CharSequence objectCode) throws IOException {
+            objectWriter.write(textRecord(address, objectCode));
+            if (metrics != null)
+                metrics.textRecord(objectCode.length() / 2);
+        }
+    };
+
+    // write the pass 1 records to the intermediate file too, for debugging
+    public void setDumpIntermediate(boolean dumpIntermediate) {
+        this.dumpIntermediate = dumpIntermediate;
+    }
+
+    // read the source from a memory mapped file instead of a Reader, meant for very large sources
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    // also write the object program in the binary format, see ObjectFile
+    public void setBinaryObject(boolean binaryObject) {
+        this.binaryObject = binaryObject;
+    }
+
+    // how pass 2 cuts the object code in T records, CoalescingTextPacker (the fewest records) by default
+    public void setTextPacker(TextPacker textPacker) {
+        this.textPacker = textPacker;
+    }
+
+    // Limits.CLASSIC by default, Limits.LARGE for generated programs. Set before pass 1
+    public void setLimits(Limits limits) {
+        this.limits = limits;
+        symbolTable = new SymbolTable(limits.expectedSymbols());
+    }
+
+    // keep outputs in cache and skip whatever didn't change since the last assemble() of the same source
+    public void setCache(AssemblyCache cache) {
+        this.cache = cache;
+    }
+
+    // for AssemblerServer: assemble with a tokenizer and an (empty) symbol table that earlier programs warmed up
+    void reuse(Tokenizer tokenizer, SymbolTable symbolTable) {
+        this.tokenizer = tokenizer;
+        this.symbolTable = symbolTable;
+    }
+
+    // collect the phase timings and counters of the next assemble() into metrics, null to stop
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    // assemble on threads threads, the outputs are the same as with one. Not with a cache, pass 1 is then serial
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    // print progress and the object program to System.out
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    // returns true if the object file was created
+    public boolean assemble() throws IOException {
+        long allocated = -1;
+        if (metrics != null) {
+            metrics.setSourceFile(SOURCE_FILE);
+            allocated = Metrics.threadAllocatedBytes();
+        }
+        if (cache != null && assembleFromCache()) {
+            if (metrics != null) {
+                metrics.setCache("HIT");
+                collectMetrics(allocated);
+            }
+            writeBinaryObject();
+            return !hasErrors;
+        }
+        long start = (metrics == null) ? 0 : System.nanoTime();
         pass1();
+        long middle = (metrics == null) ? 0 : System.nanoTime();
         pass2();
+        if (metrics != null) {
+            metrics.addPass1Nanos(middle - start);
+            metrics.addPass2Nanos(System.nanoTime() - middle);
+            metrics.setCache((cache == null) ? "OFF" : (previous == null) ? "MISS" : "PARTIAL");
+        }
+        if (cache != null) {
+            cache.store(SOURCE_FILE, new AssemblyCache.Entry(contentHash, objectHash, PROGRAM_NAME, STARTING_ADDRESS,
+                    PROGRAM_LENGTH, sourceLines, hasErrors, cachedLines), symbolTable, OBJECT_FILE, LISTING_FILE);
+        }
+        if (metrics != null)
+            collectMetrics(allocated);
+        writeBinaryObject();
+        return !hasErrors;
     }
 
-    private void pass1() {
-        final long MAX_PROGRAM_LENGTH = 32768;
-        StringBuilder intermediateText = new StringBuilder();
-        try {
-            BufferedReader bufferedReader = getReader(SOURCE_FILE);
-            if (bufferedReader == null)
-                throw new NullPointerException("COULDN\'T OPEN FILE " + SOURCE_FILE + " FOR READING");
+    // made from the text object file, so both always hold the same program
+    private void writeBinaryObject() throws IOException {
+        if (!binaryObject)
+            return;
+        File binary = new File(BINARY_FILE);
+        if (hasErrors) {
+            // like the text object file, no binary one for a program with errors
+            if (binary.exists() && !binary.delete())
+                throw new IOException("COULDN'T DELETE " + BINARY_FILE);
+            return;
+        }
+        ObjectConverter.toBinary(OBJECT_FILE, BINARY_FILE);
+        log("BINARY OBJECT FILE CREATED...");
+    }
 
-            long lineNumber = 0;
-            String line;
-            boolean hasEnd = false;
-            while ((line = (bufferedReader.readLine())) != null) {
+    // everything that is only known once the run is over. allocated is the thread's count before it, -1 if unknown
+    private void collectMetrics(long allocated) {
+        metrics.setCreated(!hasErrors);
+        metrics.setSourceLines(sourceLines);
+        metrics.setSymbolTable(symbolTable);
+        if (listingWriter != null)
+            metrics.addWriteNanos(listingWriter.getWriteNanos());
+        if (objectWriter != null)
+            metrics.addWriteNanos(objectWriter.getWriteNanos());
+        metrics.countErrors(programErrors);
+        for (Line line : lines)
+            metrics.countErrors(line.getErrors());
+        if (allocated >= 0)
+            metrics.setAllocatedBytes(Metrics.threadAllocatedBytes() - allocated);
+    }
 
-                String words[] = breakUp(line);
-                final String LABEL = words[0];
-                final String OPCODE = words[1];
-                final String OPERAND = words[2];
-                if (!empty(line)) {
-                    intermediateText.append(line);
-                    intermediateText.append("\n");
+    // true if the source didn't change since it was cached, its outputs are then copied back as they were.
+    // Otherwise the old entry is kept for pass 1 and pass 2 to take what they can from
+    private boolean assembleFromCache() throws IOException {
+        contentHash = AssemblyCache.contentHash(SOURCE_FILE, limits, textPacker.getClass().getName());
+        hashSeed = AssemblyCache.seed(limits);
+        cachedLines = new ArrayList<>();
+        AssemblyCache.Entry entry = cache.load(SOURCE_FILE, contentHash, limits.expectedSymbols());
+        if (entry == null)
+            return false;
+        if (entry.getSymbolTable() == null) {
+            previous = entry;
+            return false;
+        }
 
-                    if (!isComment(line)) {
+        symbolTable = entry.getSymbolTable();
+        PROGRAM_NAME = entry.getProgramName();
+        STARTING_ADDRESS = entry.getStartingAddress();
+        PROGRAM_LENGTH = entry.getProgramLength();
+        LOCCTR = STARTING_ADDRESS + PROGRAM_LENGTH;
+        sourceLines = entry.getSourceLines();
+        hasErrors = entry.hasErrors();
+        cache.restoreListing(SOURCE_FILE, LISTING_FILE);
+        cache.restoreObject(SOURCE_FILE, OBJECT_FILE);
+        log("SOURCE UNCHANGED, OUTPUT TAKEN FROM CACHE...");
+        return true;
+    }
 
-                        if (empty(OPERAND)) {
-                            // no operand
-                            ERRTAB[13].setFlag(true);
-                        }
+    public String getSourceFile() {
+        return SOURCE_FILE;
+    }
+
+    public long getSourceLines() {
+        return sourceLines;
+    }
+
+    public long getProgramLength() {
+        return PROGRAM_LENGTH;
+    }
+
+    public String getListingFile() {
+        return LISTING_FILE;
+    }
 
-                        if (eq(OPCODE, "END")) {
-                            hasEnd = true;
-                            intermediateText.append("END\n\n\n\n");
-                            break;
-                        } else if (lineNumber == 0) {
-                            handleFirstLine(intermediateText, LABEL, OPCODE, OPERAND);
-                        } else {
-                            // handle rest of source lines
-                            handlePassOne(intermediateText, LABEL, OPCODE, OPERAND);
+    public String getObjectFile() {
+        return OBJECT_FILE;
+    }
+
+    public String getBinaryObjectFile() {
+        return BINARY_FILE;
+    }
+
+    List<Line> getLines() {
+        return lines;
+    }
+
+    // pass1(), pass2() and the helpers below are package-private for the benchmarks
+    void pass1() throws IOException {
+        final long MAX_PROGRAM_LENGTH = limits.getMaxProgramLength();
+        // either memory map the source or read it through a BufferedReader, macros are expanded on the way
+        LineSource lineSource;
+        if (memoryMapped) {
+            lineSource = new MappedSource(SOURCE_FILE);
+        } else {
+            BufferedReader bufferedReader = getReader(SOURCE_FILE);
+            if (bufferedReader == null)
+                throw new FileNotFoundException("COULDN\'T OPEN FILE " + SOURCE_FILE + " FOR READING");
+            lineSource = LineSource.of(bufferedReader);
+        }
+        MacroProcessor source = new MacroProcessor(lineSource);
+
+        try {
+            long lineNumber = 0;
+            CharSequence line;
+            boolean hasEnd = false;
+            // lines before the first edit since the cached assembly are taken from the cache as they were
+            int reused = 0;
+            boolean reusing = previous != null && !previous.getLines().isEmpty();
+            // the same pass 1 records packed another way are another object program
+            objectHash = AssemblyCache.hash(hashSeed, textPacker.getClass().getName());
+            if (threads > 1 && cache == null) {
+                // all of it in memory, then sized in chunks
+                List<CharSequence> text = new ArrayList<>();
+                while ((line = source.readLine()) != null)
+                    text.add(line);
+                hasEnd = passOneInParallel(text);
+            } else {
+                while ((line = source.readLine()) != null) {
+                    sourceLines++;
+                    if (reusing) {
+                        CachedLine cached = previous.getLines().get(reused);
+                        if (cached.getHash() == AssemblyCache.hash(hashSeed, line)) {
+                            int records = lines.size();
+                            Line record = reuseLine(cached, line, lineNumber == 0);
+                            // and the literal pool an LTORG placed, cached right after it
+                            reused += lines.size() - records;
+                            reusing = reused < previous.getLines().size();
+                            if (record.getOpcode() == OpcodeTable.END) {
+                                hasEnd = true;
+                                break;
+                            }
+                            if (!record.isComment())
+                                lineNumber++;
+                            continue;
                         }
-                        lineNumber++;
-                        // append any errors here
-                        intermediateText.append(getErrors());
-                        intermediateText.append("\n");
-                        resetErrors();
                     }
+                    tokenizer.scan(line);
+                    if (tokenizer.isBlank())
+                        continue;
+                    reusing = false;
+                    if (!passOneLine(line, lineNumber == 0)) {
+                        hasEnd = true;
+                        break;
+                    }
+                    if (!tokenizer.isComment())
+                        lineNumber++;
                 }
-
             }
 
+            endOrg();
+            if (!hasEnd) {
+                // the END would have placed them
+                closePool();
+            }
+            if (section != null) {
+                endBlocks();
+                relocateBlocks();
+            }
             PROGRAM_LENGTH = LOCCTR - STARTING_ADDRESS;
-            if (PROGRAM_LENGTH > MAX_PROGRAM_LENGTH) {
-                // program too long
-                ERRTAB[5].setFlag(true);
+            long longest = PROGRAM_LENGTH;
+            if (section != null) {
+                section.setLength(LOCCTR - section.getStartingAddress());
+                PROGRAM_LENGTH = sections.get(0).getLength();
+                for (Section each : sections)
+                    longest = Math.max(longest, each.getLength());
+                // pass 2 starts over from the first section
+                section = sections.get(0);
+                symbolTable = section.getSymbols();
             }
+            if (longest > MAX_PROGRAM_LENGTH) {
+                // program (or one of its sections) too long
+                setError(5);
+            }
+            relocatable = STARTING_ADDRESS == 0 || sections.size() > 1;
             if (!hasEnd) {
                 // no END found
-                ERRTAB[3].setFlag(true);
+                setError(3);
             }
-            intermediateText.append(getErrors());
-            bufferedReader.close();
+            programErrors = errors;
+            resetErrors();
+            objectHash = AssemblyCache.hash(objectHash, PROGRAM_NAME);
+            objectHash = AssemblyCache.hash(objectHash, STARTING_ADDRESS);
+            objectHash = AssemblyCache.hash(objectHash, programErrors);
+            objectHash = AssemblyCache.hash(objectHash, (xeProgram) ? 1 : 0);
+            if (reused > 0)
+                log("REUSED " + reused + " LINE(S) FROM CACHE...");
+            if (metrics != null)
+                metrics.setMacros(source.getDefinitions(), source.getExpansions(), source.getCacheHits());
+        } finally {
+            source.close();
+        }
 
-            System.out.println("STARTING ADDRESS: " + Long.toHexString(STARTING_ADDRESS)
-                    + "\nPROGRAM LENGTH: " + Long.toHexString(PROGRAM_LENGTH));
-            System.out.println("INTERMEDIATE FILE CREATED...");
-            write(INTERMEDIATE_FILE, intermediateText.toString());
-        } catch (NullPointerException | IOException e) {
-            //e.printStackTrace();
-            System.out.println(e.getMessage());
-            // exit the program, no point in going if main source can't be loaded
-            System.exit(0);
+        log("STARTING ADDRESS: " + Long.toHexString(STARTING_ADDRESS)
+                + "\nPROGRAM LENGTH: " + Long.toHexString(PROGRAM_LENGTH));
+        if (dumpIntermediate) {
+            writeIntermediate();
+            log("INTERMEDIATE FILE CREATED...");
         }
     }
 
-    private void pass2() {
-        // only read from intermediate file on pass 2, and write to object and listing files
-        final String LISTING_FILE = "listing";
-        final String OBJECT_FILE = "object.obj";
+    void pass2() throws IOException {
+        if (previous != null && previous.getObjectHash() == objectHash) {
+            listingPass();
+            return;
+        }
+        // only read the pass 1 records on pass 2, and write to object and listing files as it goes. The object
+        // code goes to textPacker, which writes the T records as they are done
+        boolean lineErrors = false;
+
+        // pass 2 starts over from the first section
+        resetPassTwo();
+        modificationRecords.setLength(0);
+        String[] objectCodes = null;
+        String[] listings = null;
+        String[] modifications = null;
+        if (threads > 1 && lines.size() >= PARALLEL_LINES) {
+            objectCodes = new String[lines.size()];
+            listings = new String[lines.size()];
+            modifications = new String[lines.size()];
+            encodeInParallel(objectCodes, listings, modifications);
+        }
+
+        listingWriter = new RecordWriter(LISTING_FILE);
+        objectWriter = new RecordWriter(OBJECT_FILE);
+        int written = 0;    /* section the object file is at */
         try {
-            BufferedReader bufferedReader = getReader(INTERMEDIATE_FILE);
-            if (bufferedReader == null)
-                throw new NullPointerException("COULDN\'T OPEN FILE " + INTERMEDIATE_FILE + " FOR READING");
+            if (sections.isEmpty())
+                objectWriter.write(headerRecord(PROGRAM_NAME, STARTING_ADDRESS, PROGRAM_LENGTH));
+            else
+                writeSectionHeader(sections.get(0));
+
+            Line end = null;
+            for (int x = 0; x < lines.size(); x++) {
+                Line line = lines.get(x);
+                if (line.isComment()) {
+                    listingWriter.writeLine(line.getSource());
+                } else if (line.getAddress() < 0) {
+                    // END, always the last record
+                    end = line;
+                } else {
+                    if (line.getOpcode() == OpcodeTable.CSECT && !line.isExtended()) {
+                        // the section before it ends: text records, M records, E record
+                        writeTextRecords();
+                        objectWriter.write(modificationRecords);
+                        modificationRecords.setLength(0);
+                        objectWriter.write(endRecord(written == 0)).write('\n');
+                        writeSectionHeader(sections.get(++written));
+                    }
+                    String objectCode;
+                    String listing;
+                    if (objectCodes == null) {
+                        objectCode = encodeLine(line);
+                        listing = listingText(line, objectCode);
+                    } else {
+                        objectCode = objectCodes[x];
+                        listing = listings[x];
+                        if (modifications[x] != null)
+                            modificationRecords.append(modifications[x]);
+                    }
+                    lineErrors |= line.hasErrors();
+                    listingWriter.writeLine(listing);
+                    textPacker.add(line.getAddress(), objectCode, textRecords);
+                    if (cachedLines != null)
+                        cachedLines.get(x).setPassTwo(objectCode, line.getErrors());
+                }
+            }
 
-            StringBuilder startAddress = new StringBuilder();
-            StringBuilder listingText = new StringBuilder();
-            StringBuilder objectText = new StringBuilder();
-            StringBuilder objectTextRecord = new StringBuilder();
-            StringBuilder[] builders = {startAddress, listingText, objectText, objectTextRecord}; /*for parameters*/
+            // text records of the last section once every line is read (the ones before E record)
+            writeTextRecords();
 
-            objectText.append(headerRecord());
+            long endErrors = programErrors;
+            if (end != null) {
+                listingWriter.writeLine(makeListingLine("", "", end.getSource()));
+                endErrors |= end.getErrors();
+            }
 
-            // read the intermediate file every five lines
-            String[] lines = {"", "", "", "", ""};
-            int lineNumber = 0;
-            int MAX_WORDS = 5;
-            // put it in an array in order to be able to modify them, this or take them outside method
-            Boolean[] flags = {false, false};   // hasErrors, fromRES
+            hasErrors = lineErrors || endErrors != 0;
+            if (!hasErrors) {
+                // no errors
+                // append End record to object file
+                objectWriter.write(modificationRecords);
+                objectWriter.write(endRecord(written == 0));
+                log("OBJECT FILE CREATED...");
+            } else {
+                handlePassTwoErrors(endErrors);
+            }
+        } finally {
+            try {
+                objectWriter.close();
+            } finally {
+                listingWriter.close();
+            }
+        }
+        // the program's own symbols, for the cache
+        resetPassTwo();
+        log("LISTING FILE CREATED...");
 
-            String line;
-            while ((line = (bufferedReader.readLine())) != null) {
+        log("PROGRAM FINISHED");
+    }
+
+    // pass 2 when pass 1 came out the same as in the cache: the object program can't have changed,
+    // so it is copied back and only the listing is written again, with the object code made last time
+    private void listingPass() throws IOException {
+        List<CachedLine> previousLines = previous.getLines();
+        int next = 0;
+        listingWriter = new RecordWriter(LISTING_FILE);
+        try {
+            Line end = null;
+            for (int x = 0; x < lines.size(); x++) {
+                Line line = lines.get(x);
+                if (line.isComment()) {
+                    listingWriter.writeLine(line.getSource());
+                    continue;
+                }
+                // same records in the same order, only comments can be different
+                while (previousLines.get(next).isComment()) next++;
+                CachedLine cached = previousLines.get(next++);
+                line.addErrors(cached.getErrors());
+                cachedLines.get(x).setPassTwo(cached.getObjectCode(), line.getErrors());
+                if (line.getAddress() < 0)
+                    end = line;
+                else
+                    writeListing(line, cached.getObjectCode());
+            }
+
+            long endErrors = programErrors;
+            if (end != null) {
+                listingWriter.writeLine(makeListingLine("", "", end.getSource()));
+                endErrors |= end.getErrors();
+            }
+            hasErrors = previous.hasErrors();
+            if (hasErrors && endErrors != 0)
+                listingWriter.writeLine(getErrors(endErrors));
+        } finally {
+            listingWriter.close();
+        }
+        cache.restoreObject(SOURCE_FILE, OBJECT_FILE);
+        log("OBJECT PROGRAM UNCHANGED, TAKEN FROM CACHE...");
+        log("LISTING FILE CREATED...");
+
+        log("PROGRAM FINISHED");
+    }
+
+    // pass 1 helper methods
+    // puts back a record of the cached assembly, with its symbol and the pass 1 state after it
+    private Line reuseLine(CachedLine cached, CharSequence source, boolean first) {
+        final long SYMBOL_ERRORS = (1L << 0) | (1L << 1) | (1L << 4) | (1L << 6);
+        Line line = cached.toLine(source);
+        lines.add(line);
+        if (!line.isComment() && line.getOpcode() != OpcodeTable.END) {
+            if (first) {
+                PROGRAM_NAME = cached.getLabel();
+                STARTING_ADDRESS = line.getAddress();
+                startSection(PROGRAM_NAME, STARTING_ADDRESS);
+            } else if (line.getOpcode() == OpcodeTable.CSECT && !line.isExtended()) {
+                // only reused if the pool before it was empty, its records would be cached in between
+                closePool();
+                startSection(cached.getLabel(), 0);
+            } else if (line.getOpcode() == OpcodeTable.EXTDEF || line.getOpcode() == OpcodeTable.EXTREF) {
+                // the line already has the errors this finds
+                externalSymbols(line.getOpcode(), line.getOperand());
                 resetErrors();
-                if (!isComment(line)) {
-                    if (lineNumber % MAX_WORDS == 0 && lineNumber > 0) {
-                        // already have lines needed
-                        handlePassTwo(lines, flags, builders);
-                    }
-                    lines[lineNumber % MAX_WORDS] = line;
-                    lineNumber++;
-                } else {
-                    // comment
-                    listingText.append(line);
-                    listingText.append("\n");
+            } else if (line.getOpcode() == OpcodeTable.EQU && !line.isExtended()) {
+                // its value may wait for symbols further down, as it did then
+                tokenizer.scan(source);
+                equ(line.getOperand());
+            } else {
+                if (line.getOpcode() == OpcodeTable.USE && !line.isExtended())
+                    use(line.getOperand());
+                if (!cached.getLabel().isEmpty() && (line.getErrors() & SYMBOL_ERRORS) == 0) {
+                    // addToSymTable() took the label
+                    String label = cached.getLabel();
+                    symbolTable.put(label, (int) line.getAddress());
+                    section.addBlockSymbol(label, section.getBlock());
+                    defined(label, 0, label.length());
                 }
+            }
+            if (line.getOpcode() == OpcodeTable.ORG && !line.isExtended()) {
+                // where the ORG without an operand goes back to
+                org(line.getOperand());
+            }
+            String literal = literalValue(line.getOpcode(), line.getOperand());
+            if (literal != null)
+                literals.add(literal(line.getOperand()), literal);
+            resetErrors();
+            LOCCTR = cached.getLocctr();
+            xeProgram = cached.isXeProgram();
+        }
+        cacheLine(cached.getLabel());
+        if (line.getOpcode() == OpcodeTable.LTORG && !line.isExtended())
+            closePool();
+        return line;
+    }
 
+    // keeps the last record for the cache and adds it to the object hash
+    private void cacheLine(String label) {
+        if (cachedLines == null)
+            return;
+        Line line = lines.get(lines.size() - 1);
+        Opcode opcode = line.getOpcode();
+        String mnemonic = (opcode == null) ? "" : opcode.getMnemonic();
+        cachedLines.add(new CachedLine(AssemblyCache.hash(hashSeed, line.getSource()), line.isComment(),
+                line.getAddress(), mnemonic, line.isExtended(), label, line.getOperand(), line.getErrors(),
+                LOCCTR, xeProgram));
+        if (!line.isComment()) {
+            objectHash = AssemblyCache.hash(objectHash, line.getAddress());
+            objectHash = AssemblyCache.hash(objectHash, mnemonic);
+            objectHash = AssemblyCache.hash(objectHash, (line.isExtended()) ? 1 : 0);
+            objectHash = AssemblyCache.hash(objectHash, label);
+            objectHash = AssemblyCache.hash(objectHash, line.getOperand());
+            objectHash = AssemblyCache.hash(objectHash, line.getErrors());
+        }
+    }
+
+    // pass 1 over text, a source file already in memory; returns true if it has an END. The header, and
+    // anything too short to be worth it, goes the usual way. The rest is cut in chunks that are sized at the
+    // same time: every line's length only depends on the line, so each chunk gets a LOCCTR relative to its
+    // start and a symbol table of its own. A prefix sum over the chunk lengths then places them and their
+    // symbol tables are merged in source order, so a label defined earlier still wins and the later ones
+    // are duplicates (ERRTAB[0]) and their literals go in the pool in source order. A chunk with CSECT, EXTDEF,
+    // EXTREF, LTORG, EQU, ORG or USE, or one that could fill the symbol table, is placed line by line instead. The
+    // outcome is the same as a serial pass 1, line for line
+    private boolean passOneInParallel(final List<CharSequence> text) throws IOException {
+        int from = 0;
+        long lineNumber = 0;
+        for (; from < text.size() && (lineNumber == 0 || text.size() - from < PARALLEL_LINES); from++) {
+            sourceLines++;
+            tokenizer.scan(text.get(from));
+            if (tokenizer.isBlank())
+                continue;
+            if (!passOneLine(text.get(from), lineNumber == 0))
+                return true;
+            if (!tokenizer.isComment())
+                lineNumber++;
+        }
+        if (from == text.size())
+            return false;
+
+        // size the chunks
+        int size = Math.max(1024, (text.size() - from + threads * 4 - 1) / (threads * 4));
+        final List<Chunk> chunks = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int first = from; first < text.size(); first += size) {
+            final Chunk chunk = new Chunk(first, Math.min(first + size, text.size()));
+            chunks.add(chunk);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    new Assembler(Assembler.this).sizeChunk(text, chunk);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+
+        // place them, up to the one with the END
+        boolean hasEnd = false;
+        int placed = 0;
+        while (placed < chunks.size() && !hasEnd) {
+            Chunk chunk = chunks.get(placed++);
+            if (chunk.inOrder || symbolTable.size() + chunk.symbols.size() > limits.getMaxSymbols())
+                placeInOrder(text, chunk);
+            else
+                place(chunk);
+            hasEnd = chunk.hasEnd;
+            if (hasEnd) {
+                endOrg();
+                closePool(chunk, chunk.last - 1 - chunk.first);
             }
+            sourceLines += chunk.last - chunk.first;
+            xeProgram |= chunk.xeProgram;
+            if (metrics != null)
+                metrics.addOpcodeLookups(chunk.opcodeHits, chunk.opcodeMisses);
+        }
 
-            // last text record once the file is read (the one before E record)
-            if (objectTextRecord.length() > 0) {
-                objectText.append(textRecord(startAddress.toString(), objectTextRecord.toString()));
-                objectTextRecord.setLength(0);
+        // and make their records with the addresses they got
+        tasks.clear();
+        for (final Chunk chunk : chunks.subList(0, placed)) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    chunk.makeLines(text);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+        for (Chunk chunk : chunks.subList(0, placed)) {
+            for (int at = 0; at <= chunk.lines.length; at++) {
+                if (chunk.pools != null && chunk.pools.containsKey(at))
+                    lines.addAll(chunk.pools.get(at));
+                if (at < chunk.lines.length && chunk.lines[at] != null)
+                    lines.add(chunk.lines[at]);
             }
+        }
+        return hasEnd;
+    }
 
-            if (lineNumber % MAX_WORDS == 0 && !flags[0]) {
-                // no errors
-                listingText.append(makeListingLine("", "", lines[0]));
-                // append End record to object file
-                objectText.append(endRecord());
-                System.out.println("OBJECT FILE CREATED...");
-                System.out.println("\nObject code:\n" + objectText.toString() + "\n\n");
+    // on a worker Assembler: tokenizes and sizes the lines of chunk, with LOCCTR from 0 and the chunk's
+    // own symbol table. Whatever needs the lines before it (CSECT, EXTDEF, EXTREF, LTORG, and what
+    // needsSymbols()) is left to placeInOrder()
+    private void sizeChunk(List<CharSequence> text, Chunk chunk) {
+        symbolTable = chunk.symbols;
+        for (int x = chunk.first; x < chunk.end; x++) {
+            int at = x - chunk.first;
+            CharSequence line = text.get(x);
+            tokenizer.scan(line);
+            if (tokenizer.isBlank())
+                continue;
+            if (tokenizer.isComment()) {
+                chunk.lines[at] = Line.comment(line);
+                continue;
+            }
+
+            final String OPERAND = tokenizer.operand();
+            if (tokenizer.opcodeIs("END")) {
+                if (!tokenizer.hasOperand())
+                    setError(13);
+                chunk.lines[at] = new Line(line, -1, OpcodeTable.END, OPERAND, errors);
+                resetErrors();
+                chunk.last = x + 1;
+                chunk.hasEnd = true;
+                break;
+            }
+            boolean extended = extendedOpcode();
+            Opcode opcode = lookupOpcode(extended);
+            if (opcode != null)
+                chunk.opcodeHits++;
+            else
+                chunk.opcodeMisses++;
+            long start = LOCCTR;
+            if (tokenizer.hasLabel())
+                chunk.labelEnds[at] = tokenizer.labelEnd();
+            if (opcode == OpcodeTable.CSECT && !extended) {
+                if (!tokenizer.hasLabel())
+                    setError(22);
+                chunk.inOrder = true;
+            } else if (needsSymbols(opcode, extended, OPERAND)) {
+                chunk.inOrder = true;
+                chunk.deferred[at] = true;
             } else {
-                handlePassTwoErrors(lines, OBJECT_FILE, listingText);
+                if (tokenizer.hasLabel()) {
+                    addToSymTable(line, tokenizer.labelStart(), tokenizer.labelEnd());
+                    chunk.labelErrors[at] = errors;
+                    resetErrors();
+                }
+                sizeStatement(opcode, extended, OPERAND);
+                if (!extended && (opcode == OpcodeTable.EXTDEF || opcode == OpcodeTable.EXTREF
+                        || opcode == OpcodeTable.LTORG))
+                    chunk.inOrder = true;
+                chunk.literals[at] = literalValue(opcode, OPERAND);
+                if (chunk.literals[at] != null)
+                    chunk.literalCount++;
             }
-            write(LISTING_FILE, listingText.toString());
-            System.out.println("INTERMEDIATE FILE CREATED...");
+            chunk.opcodes[at] = opcode;
+            chunk.extended[at] = extended;
+            chunk.operands[at] = OPERAND;
+            chunk.errors[at] = errors;
+            chunk.sizes[at] = LOCCTR - start;
+            resetErrors();
+        }
+        chunk.length = LOCCTR;
+        chunk.xeProgram = xeProgram;
+    }
 
-        } catch (NullPointerException | IOException e) {
-            e.printStackTrace();
-            System.out.println(e.getMessage());
+    // EQU, ORG, and RESW or RESB of an expression can't be sized without the symbols before them, USE without
+    // the LOCCTR of its block
+    private boolean needsSymbols(Opcode opcode, boolean extended, String OPERAND) {
+        return !extended && (opcode == OpcodeTable.EQU || opcode == OpcodeTable.ORG || opcode == OpcodeTable.USE
+                || ((opcode == OpcodeTable.RESW || opcode == OpcodeTable.RESB) && !isDigit(OPERAND)));
+    }
+
+    // the chunk goes at LOCCTR, its symbols are merged into the section's
+    private void place(Chunk chunk) {
+        chunk.start = LOCCTR;
+        boolean references = section != null && !section.getReferences().isEmpty();
+        SymbolTable symbols = chunk.symbols;
+        for (int slot = 0; slot < symbols.capacity(); slot++) {
+            if (!symbols.isUsed(slot))
+                continue;
+            String label = (references) ? symbols.label(slot) : null;
+            if ((references && section.isReference(label, 0, label.length()))
+                    || !symbolTable.put(symbols, slot, (int) LOCCTR)) {
+                // duplicate label, on every line of the chunk that defines it
+                if (chunk.duplicates == null)
+                    chunk.duplicates = new SymbolTable();
+                chunk.duplicates.put(symbols, slot, 0);
+            } else {
+                if (section != null && section.getBlock() != 0)
+                    section.addBlockSymbol(symbols.label(slot), section.getBlock());
+                if (!forwardReferences.isEmpty()) {
+                    String defined = symbols.label(slot);
+                    defined(defined, 0, defined.length());
+                }
+            }
+        }
+        for (int at = 0; chunk.literalCount > 0 && at < chunk.literals.length; at++) {
+            if (chunk.literals[at] != null)
+                literals.add(literal(chunk.operands[at]), chunk.literals[at]);
+        }
+        LOCCTR += chunk.length;
+    }
+
+    // the chunk line by line, as handlePassOne() would
+    private void placeInOrder(List<CharSequence> text, Chunk chunk) {
+        chunk.addresses = new long[chunk.sizes.length];
+        for (int x = chunk.first; x < chunk.last; x++) {
+            int at = x - chunk.first;
+            Opcode opcode = chunk.opcodes[at];
+            if (chunk.operands[at] == null)
+                continue;
+            CharSequence line = text.get(x);
+            boolean extended = chunk.extended[at];
+            if (chunk.deferred[at]) {
+                // the symbols before it are all known now
+                tokenizer.scan(line);
+                chunk.lines[at] = statement(line, opcode, extended, chunk.operands[at]);
+                resetErrors();
+                continue;
+            }
+            if (opcode == OpcodeTable.CSECT && !extended) {
+                closePool(chunk, at);
+                startSection(line.subSequence(0, chunk.labelEnds[at]).toString(), 0);
+                chunk.addresses[at] = LOCCTR;
+                continue;
+            }
+            chunk.addresses[at] = LOCCTR;
+            if (chunk.labelEnds[at] > 0) {
+                addToSymTable(line, 0, chunk.labelEnds[at]);
+                chunk.labelErrors[at] = errors;
+                resetErrors();
+            }
+            if (!extended && (opcode == OpcodeTable.EXTDEF || opcode == OpcodeTable.EXTREF)) {
+                externalSymbols(opcode, chunk.operands[at]);
+                chunk.errors[at] |= errors;
+                resetErrors();
+            }
+            if (chunk.literals[at] != null)
+                literals.add(literal(chunk.operands[at]), chunk.literals[at]);
+            LOCCTR += chunk.sizes[at];
+            if (opcode == OpcodeTable.LTORG && !extended)
+                closePool(chunk, at + 1);
+        }
+    }
+
+    // the line the tokenizer just scanned (not blank), false once it is the END
+    private boolean passOneLine(CharSequence line, boolean first) {
+        if (tokenizer.isComment()) {
+            lines.add(Line.comment(line));
+            cacheLine("");
+            return true;
+        }
+
+        final String OPERAND = tokenizer.operand();
+        if (!tokenizer.hasOperand() && (first || tokenizer.opcodeIs("END"))) {
+            // no operand
+            setError(13);
         }
 
-        System.out.println("PROGRAM FINISHED");
+        if (tokenizer.opcodeIs("END")) {
+            // the last pool goes right before it
+            endOrg();
+            closePool();
+            lines.add(new Line(line, -1, OpcodeTable.END, OPERAND, errors));
+            cacheLine("");
+            resetErrors();
+            return false;
+        } else if (first) {
+            handleFirstLine(line, OPERAND);
+        } else {
+            // handle rest of source lines
+            handlePassOne(line, OPERAND);
+        }
+        if (cachedLines != null)
+            cacheLine((tokenizer.hasLabel()) ? tokenizer.label() : "");
+        resetErrors();
+        Line record = lines.get(lines.size() - 1);
+        if (record.getOpcode() == OpcodeTable.LTORG && !record.isExtended())
+            closePool();
+        return true;
     }
 
-    // pass 1 helper methods
-    private void handleFirstLine(StringBuilder intermediateText, String LABEL, String OPCODE, String OPERAND) {
-        if (empty(LABEL)) {
-            ERRTAB[22].setFlag(true);
+    private void handleFirstLine(CharSequence SOURCE_LINE, String OPERAND) {
+        if (!tokenizer.hasLabel()) {
+            setError(22);
         } else {
-            PROGRAM_NAME = LABEL;
+            PROGRAM_NAME = tokenizer.label();
         }
-        if (eq(OPCODE, "START")) {
+        if (tokenizer.opcodeIs("START")) {
             long num = num(OPERAND, 16);
             if (empty(OPERAND) || num < 0) {
                 // no operand or not a hex
-                ERRTAB[2].setFlag(true);
+                setError(2);
                 LOCCTR = 0x0;
             } else {
                 LOCCTR = num;
             }
         } else {
             // no start on line 0
-            ERRTAB[2].setFlag(true);
+            setError(2);
 
             LOCCTR = 0x0;
         }
         STARTING_ADDRESS = LOCCTR;
-        intermediateText.append(Long.toHexString(LOCCTR));
-        intermediateText.append("\n");
-        intermediateText.append("START\n");
-        intermediateText.append(OPERAND);
-        intermediateText.append("\n");
-    }
-
-    private void handlePassOne(StringBuilder intermediateText, String LABEL, String OPCODE, String OPERAND) {
-        intermediateText.append(Long.toHexString(LOCCTR));
-        intermediateText.append("\n");
-        // rest of file
-        if (!empty(LABEL)) {
-            addToSymTable(LABEL);
-        }
-        int index = searchOpcode(OPCODE);
-        if (index >= 0) {
-            intermediateText.append(Long.toHexString(OPTAB[index].getHexCode()));
-            intermediateText.append("\n");
-            LOCCTR += 3;
+        startSection(PROGRAM_NAME, STARTING_ADDRESS);
+        // first line is always the header, whatever its opcode is
+        lines.add(new Line(SOURCE_LINE, LOCCTR, OpcodeTable.START, OPERAND, errors));
+    }
+
+    private void handlePassOne(CharSequence SOURCE_LINE, String OPERAND) {
+        boolean extended = extendedOpcode();
+        Opcode opcode = lookupOpcode(extended);
+        if (metrics != null)
+            metrics.opcodeLookup(opcode != null);
+        lines.add(statement(SOURCE_LINE, opcode, extended, OPERAND));
+    }
+
+    // the record of the line the tokenizer just scanned, after its label, LOCCTR and section
+    private Line statement(CharSequence SOURCE_LINE, Opcode opcode, boolean extended, String OPERAND) {
+        if (opcode == OpcodeTable.CSECT && !extended) {
+            // the label names the new section instead of going in the symbol table
+            if (!tokenizer.hasLabel())
+                setError(22);
+            // the section that ends keeps its literals
+            closePool();
+            startSection((tokenizer.hasLabel()) ? tokenizer.label() : "", 0);
+            return new Line(SOURCE_LINE, LOCCTR, opcode, OPERAND, errors);
+        }
+
+        if (opcode == OpcodeTable.USE && !extended) {
+            // the line, and its label, are in the block it goes on with
+            use(OPERAND);
+        }
+        final long ADDRESS = LOCCTR;
+        // rest of file, the label of an EQU gets the value of its operand instead
+        if (tokenizer.hasLabel() && (opcode != OpcodeTable.EQU || extended)) {
+            addToSymTable(tokenizer.getLine(), tokenizer.labelStart(), tokenizer.labelEnd());
+        }
+        sizeStatement(opcode, extended, OPERAND);
+        if (!extended && (opcode == OpcodeTable.EXTDEF || opcode == OpcodeTable.EXTREF))
+            externalSymbols(opcode, OPERAND);
+        String literal = literalValue(opcode, OPERAND);
+        if (literal != null)
+            literals.add(literal(OPERAND), literal);
+        return new Line(SOURCE_LINE, ADDRESS, opcode, extended, OPERAND, errors);
+    }
+
+    // +OPCODE is the format 4 version
+    private boolean extendedOpcode() {
+        return tokenizer.hasOpcode() && tokenizer.getLine().charAt(tokenizer.opcodeStart()) == '+';
+    }
+
+    private Opcode lookupOpcode(boolean extended) {
+        int start = tokenizer.opcodeStart() + ((extended) ? 1 : 0);
+        return OpcodeTable.search(tokenizer.getLine(), start, tokenizer.opcodeEnd());
+    }
+
+    // the errors and LOCCTR of a statement, whatever its label and section are
+    private void sizeStatement(Opcode opcode, boolean extended, String OPERAND) {
+        if (!tokenizer.hasOperand() && (opcode == null || needsOperand(opcode))) {
+            // no operand
+            setError(13);
+        }
+        if (opcode == null) {
+            setError(14);
+        } else if (extended && opcode.getFormat() != 3) {
+            // only format 3 instructions have a format 4
+            setError(27);
+        } else if (!opcode.isDirective()) {
+            LOCCTR += (extended) ? 4 : opcode.getLength();
+            if (extended || opcode.isXE() || OPERAND.startsWith("#") || OPERAND.startsWith("@"))
+                xeProgram = true;
         } else {
-            handleSpecialOpcodes(intermediateText, OPCODE, OPERAND);
+            handleSpecialOpcodes(opcode, OPERAND);
+        }
+    }
+
+    // the sections that follow have their own LOCCTR (from 0) and symbol table
+    private void startSection(String name, long start) {
+        endOrg();
+        // what is still waiting can't use the symbols of another section
+        forwardReferences.clear();
+        if (section != null) {
+            endBlocks();
+            section.setLength(LOCCTR - section.getStartingAddress());
+        }
+        SymbolTable symbols = (sections.isEmpty()) ? symbolTable : new SymbolTable(limits.expectedSymbols());
+        section = new Section(name, start, symbols);
+        sections.add(section);
+        symbolTable = symbols;
+        LOCCTR = start;
+    }
+
+    // EXTDEF or EXTREF: the symbols, separated by commas, the section exports or takes from other sections
+    private void externalSymbols(Opcode opcode, String OPERAND) {
+        if (empty(OPERAND))
+            return;
+        int start = 0;
+        while (start <= OPERAND.length()) {
+            int end = OPERAND.indexOf(',', start);
+            if (end < 0)
+                end = OPERAND.length();
+            if (end == start || !isAlphaNum(OPERAND, start, end) || !Character.isAlphabetic(OPERAND.charAt(start))
+                    || symbolTooLong(end - start) || end - start > NAME_LENGTH) {
+                // D, R and M records only have room for NAME_LENGTH, whatever the limits
+                setError(29);
+            } else if (opcode == OpcodeTable.EXTDEF) {
+                section.addDefinition(OPERAND.substring(start, end));
+            } else if (symbolTable.contains(OPERAND, start, end) || !section.addReference(OPERAND.substring(start, end))) {
+                // already a symbol of this section, or named twice
+                setError(29);
+            }
+            start = end + 1;
+        }
+    }
+
+    // =LITERAL or =LITERAL,X: the object code of LITERAL, null if OPERAND isn't a literal of a format 3/4
+    // instruction or isn't a legal one (C'...' or X'...' as BYTE takes them, not empty)
+    private String literalValue(Opcode opcode, String OPERAND) {
+        if (opcode == null || opcode.getFormat() != 3 || !OPERAND.startsWith("="))
+            return null;
+        long lineErrors = errors;
+        resetErrors();
+        String literal = literal(OPERAND);
+        boolean legal = byteValue(literal) > 0 && errors == 0;
+        errors = lineErrors;
+        if (!legal) {
+            setError(31);
+            return null;
+        }
+        return byteCode(literal);
+    }
+
+    private String literal(String OPERAND) {
+        return OPERAND.substring(1, OPERAND.length() - ((indexed(OPERAND)) ? 2 : 0));
+    }
+
+    // places the literals of the open pool from LOCCTR on, a record each, and opens the next pool
+    private void closePool() {
+        poolInBlock();
+        for (int x = 0; x < literals.pending(); x++) {
+            lines.add(literalLine(x));
+            cacheLine("");
+        }
+        literals.close();
+    }
+
+    // same, the records go in chunk before its line at
+    private void closePool(Chunk chunk, int at) {
+        poolInBlock();
+        if (literals.pending() > 0) {
+            if (chunk.pools == null)
+                chunk.pools = new HashMap<>();
+            List<Line> records = chunk.pools.get(at);
+            if (records == null) {
+                records = new ArrayList<>(literals.pending());
+                chunk.pools.put(at, records);
+            }
+            for (int x = 0; x < literals.pending(); x++)
+                records.add(literalLine(x));
+        }
+        literals.close();
+    }
+
+    // the open pool goes in a block other than the default one, it moves with it (see endBlocks())
+    private void poolInBlock() {
+        if (literals.pending() > 0 && section != null && section.getBlock() != 0)
+            blockPools.add(new int[]{literals.getPool(), section.getBlock()});
+    }
+
+    // literal index of the open pool at LOCCTR, listed as "*  =LITERAL" and assembled as BYTE LITERAL
+    private Line literalLine(int index) {
+        String literal = literals.operand(index);
+        Line line = new Line("*       =" + literal, LOCCTR, OpcodeTable.BYTE, literal, 0);
+        literals.place(index, LOCCTR);
+        LOCCTR += byteValue(literal);
+        return line;
+    }
+
+    private boolean isAbsolute(CharSequence source, int start, int end) {
+        return section != null && section.isAbsolute(source, start, end);
+    }
+
+    private boolean isExternal(CharSequence source, int start, int end) {
+        return section != null && section.isReference(source, start, end);
+    }
+
+    // label is source[start, end)
+    private void addToSymTable(CharSequence source, int start, int end) {
+        if (newSymbol(source, start, end)) {
+            symbolTable.put(source, start, end, (int) LOCCTR);
+            if (section != null && section.getBlock() != 0)
+                section.addBlockSymbol(source.subSequence(start, end), section.getBlock());
+            defined(source, start, end);
         }
-        intermediateText.append(OPERAND);
-        intermediateText.append("\n");
     }
 
-    private void addToSymTable(String LABEL) {
-        if (isAlphaNum(LABEL) && Character.isAlphabetic(LABEL.charAt(0))) {
+    // true if source[start, end) can go in the symbol table, otherwise the error why not is set
+    private boolean newSymbol(CharSequence source, int start, int end) {
+        if (isLabel(source, start, end)) {
             // legal label
-            if (!hasSymbol(LABEL)) {
+            if (!symbolTable.contains(source, start, end) && !isExternal(source, start, end)) {
                 // not in symbol table
                 if (tooManySymbols()) {
-                    ERRTAB[4].setFlag(true);
+                    setError(4);
                 } else {
                     // fits in symbol table
-                    if (symbolTooLong(LABEL)) {
-                        ERRTAB[6].setFlag(true);
+                    if (symbolTooLong(end - start)) {
+                        setError(6);
                     } else
-                        addSymbol(LABEL, LOCCTR);
+                        return true;
                 }
             } else {
                 // duplicate label
-                ERRTAB[0].setFlag(true);
+                setError(0);
             }
         } else {
             // illegal label
-            ERRTAB[1].setFlag(true);
+            setError(1);
+        }
+        return false;
+    }
+
+    // LABEL EQU expression: LABEL gets the value of the expression, absolute or relative like it. If the
+    // expression has symbols that aren't defined yet it waits for them, see defined()
+    private void equ(String OPERAND) {
+        if (!tokenizer.hasLabel()) {
+            setError(33);
+            return;
+        }
+        CharSequence source = tokenizer.getLine();
+        int start = tokenizer.labelStart();
+        int end = tokenizer.labelEnd();
+        if (!newSymbol(source, start, end) || empty(OPERAND))
+            return;
+        int status = expression.evaluate(OPERAND, 0, OPERAND.length(), LOCCTR, section.getBlock());
+        if (status == Expression.UNDEFINED) {
+            forwardReferences.add(tokenizer.label(), OPERAND, LOCCTR, section.getBlock(), expression.getUndefined());
+        } else if (status == Expression.ILLEGAL || !expression.getExternals().isEmpty()) {
+            // an external symbol has no value until it is linked
+            setError(32);
+        } else {
+            define(tokenizer.label());
+            defined(source, start, end);
+        }
+    }
+
+    // label gets the value of the expression just evaluated, a 24 bit word
+    private void define(String label) {
+        symbolTable.put(label, (int) (expression.getValue() & 0xFFFFFF));
+        if (!expression.isRelative())
+            section.addAbsolute(label);
+        else
+            section.addBlockSymbol(label, expression.getBlock());
+    }
+
+    // source[start, end) was just defined: every EQU that was only waiting for it gets its value, and so do
+    // the ones that were waiting for those. What fails now is an error again in pass 2
+    private void defined(CharSequence source, int start, int end) {
+        if (forwardReferences.isEmpty())
+            return;
+        List<ForwardReferences.Waiting> ready =
+                new ArrayList<>(forwardReferences.defined(source.subSequence(start, end).toString()));
+        for (int x = 0; x < ready.size(); x++) {
+            ForwardReferences.Waiting waiting = ready.get(x);
+            String OPERAND = waiting.getExpression();
+            int status = expression.evaluate(OPERAND, 0, OPERAND.length(), waiting.getLocctr(), waiting.getBlock());
+            String label = waiting.getLabel();
+            if (status != Expression.LEGAL || !expression.getExternals().isEmpty() || symbolTable.contains(label))
+                continue;
+            define(label);
+            ready.addAll(forwardReferences.defined(label));
+        }
+    }
+
+    // ORG expression: LOCCTR goes to the value of a relative expression of symbols defined before it.
+    // ORG without an operand goes back to where LOCCTR was before the first ORG, or further if it got there
+    private void org(String OPERAND) {
+        if (empty(OPERAND)) {
+            if (orgReturn < 0) {
+                // nothing to go back to
+                setError(32);
+            } else {
+                LOCCTR = Math.max(LOCCTR, orgReturn);
+                orgReturn = -1;
+            }
+            return;
+        }
+        int status = expression.evaluate(OPERAND, 0, OPERAND.length(), LOCCTR, section.getBlock());
+        if (status == Expression.UNDEFINED) {
+            setError(23);
+        } else if (status == Expression.ILLEGAL || !expression.isRelative() || !expression.getExternals().isEmpty()
+                || expression.getBlock() != section.getBlock()
+                || expression.getValue() < ((section.getBlock() == 0) ? section.getStartingAddress() : 0)) {
+            setError(32);
+        } else {
+            orgReturn = Math.max(orgReturn, LOCCTR);
+            LOCCTR = expression.getValue();
+        }
+    }
+
+    // USE name, or USE for the default block: LOCCTR goes on from where the block was left
+    private void use(String OPERAND) {
+        if (!empty(OPERAND) && !isLabel(OPERAND, 0, OPERAND.length())) {
+            setError(34);
+            return;
         }
+        endOrg();
+        LOCCTR = section.use(OPERAND, LOCCTR);
     }
 
-    private void handleSpecialOpcodes(StringBuilder intermediateText, String OPCODE, String OPERAND) {
+    // the section ends: its blocks go one after the other, LOCCTR where the last one ends. Pools placed in a
+    // block move with it
+    private void endBlocks() {
+        if (!section.hasBlocks())
+            return;
+        LOCCTR = section.endBlocks(LOCCTR);
+        for (int[] pool : blockPools)
+            literals.move(pool[0], section.getBlockStart(pool[1]));
+        blockPools.clear();
+    }
+
+    // once every section is done: the lines of a block other than the default one get the addresses
+    // endBlocks() gave it
+    private void relocateBlocks() {
+        boolean blocks = false;
+        for (Section each : sections)
+            blocks |= each.hasBlocks();
+        if (!blocks)
+            return;
+        int number = 0;
+        Section current = sections.get(0);
+        long relocation = 0;
+        for (int x = 0; x < lines.size(); x++) {
+            Line line = lines.get(x);
+            if (line.isComment() || line.getAddress() < 0)
+                continue;
+            if (line.getOpcode() == OpcodeTable.CSECT && !line.isExtended()) {
+                current = sections.get(++number);
+                relocation = 0;
+            } else if (line.getOpcode() == OpcodeTable.USE && !line.isExtended()) {
+                int block = current.getBlock(line.getOperand());
+                if (block >= 0)
+                    relocation = current.getBlockStart(block);
+            }
+            if (relocation != 0)
+                lines.set(x, line.moved(relocation));
+        }
+    }
+
+    // a section ends where its last ORG went back to at least
+    private void endOrg() {
+        if (orgReturn >= 0)
+            LOCCTR = Math.max(LOCCTR, orgReturn);
+        orgReturn = -1;
+    }
+
+    // number of words or bytes of RESW or RESB: digits, or an absolute expression of symbols defined before it
+    private long reserved(String OPERAND) {
+        if (isDigit(OPERAND))
+            return num(OPERAND, 10);
+        if (expression.evaluate(OPERAND, 0, OPERAND.length(), LOCCTR, section.getBlock()) != Expression.LEGAL
+                || expression.isRelative()
+                || !expression.getExternals().isEmpty() || expression.getValue() < 0)
+            return -1;
+        return expression.getValue();
+    }
+
+    private void handleSpecialOpcodes(Opcode opcode, String OPERAND) {
         // not in opcode table
-        if (eq(OPCODE, "RESW")) {
+        if (opcode == OpcodeTable.RESW) {
+            long words = (empty(OPERAND)) ? 0 : reserved(OPERAND);
             if (empty(OPERAND)) {
-                ERRTAB[15].setFlag(true);
-            } else if (!isDigit(OPERAND)) {
-                ERRTAB[16].setFlag(true);
+                setError(15);
+            } else if (words < 0) {
+                setError(16);
             } else
-                LOCCTR += (3 * num(OPERAND, 10));
+                LOCCTR += (3 * words);
 
-        } else if (eq(OPCODE, "RESB")) {
+        } else if (opcode == OpcodeTable.RESB) {
+            long bytes = (empty(OPERAND)) ? 0 : reserved(OPERAND);
             if (empty(OPERAND)) {
-                ERRTAB[17].setFlag(true);
-            } else if (!isDigit(OPERAND)) {
-                ERRTAB[18].setFlag(true);
+                setError(17);
+            } else if (bytes < 0) {
+                setError(18);
             } else
-                LOCCTR += num(OPERAND, 10);
+                LOCCTR += bytes;
 
-        } else if (eq(OPCODE, "WORD")) {
+        } else if (opcode == OpcodeTable.WORD) {
             if (empty(OPERAND)) {
-                ERRTAB[19].setFlag(true);
-            } else if (!isDigit(OPERAND)) {
-                ERRTAB[20].setFlag(true);
+                setError(19);
+            } else if (!isDigit(OPERAND) && !isSymbol(OPERAND)
+                    && !expression.isWellFormed(OPERAND, 0, OPERAND.length())) {
+                setError(20);
             } else
-                LOCCTR += 3;
+                LOCCTR += opcode.getLength();
 
-        } else if (eq(OPCODE, "BYTE")) {
+        } else if (opcode == OpcodeTable.BYTE) {
             if (empty(OPERAND))
-                ERRTAB[21].setFlag(true);
+                setError(21);
             else
                 LOCCTR += byteValue(OPERAND);
+        } else if (opcode == OpcodeTable.BASE || opcode == OpcodeTable.NOBASE) {
+            // no space, only tells pass 2 what is in register B
+            xeProgram = true;
+        } else if (opcode == OpcodeTable.EXTDEF || opcode == OpcodeTable.EXTREF) {
+            // no space either, see externalSymbols()
+        } else if (opcode == OpcodeTable.LTORG) {
+            // no space of its own, its pool goes right after it (see closePool())
+        } else if (opcode == OpcodeTable.EQU) {
+            equ(OPERAND);
+        } else if (opcode == OpcodeTable.ORG) {
+            org(OPERAND);
+        } else if (opcode == OpcodeTable.USE) {
+            // no space, see use()
         } else {
-            ERRTAB[14].setFlag(true);
+            // START or END in the middle of the program
+            setError(14);
         }
-        intermediateText.append(OPCODE);
-        intermediateText.append("\n");
     }
 
     // pass 2 helper methods
-    private void handlePassTwo(String[] lines, Boolean[] flags, StringBuilder[] builders) {
-        StringBuilder startAddress = builders[0];
-        StringBuilder listingText = builders[1];
-        StringBuilder objectText = builders[2];
-        StringBuilder objectTextRecord = builders[3];
-
+    // returns the object code as listed, "" if none or the line has errors. Only reads what pass 1 left and
+    // this Assembler's own pass 2 state (errors, base register, section), see encodeInParallel()
+    private String encodeLine(Line line) {
         String objectCode;
-        String SOURCE_LINE = lines[0];
-        String ADDRESS = lines[1];
-        String OPCODE = lines[2];
-        String OPERAND = lines[3];
-        String ERRORS = lines[4];
-        if (startAddress.length() == 0) {
-            startAddress.setLength(0);
-            startAddress.append(ADDRESS);
-        }
-        if (noObjectCode(OPCODE)) {
+        Opcode opcode = line.getOpcode();
+        if (opcode == OpcodeTable.CSECT && !line.isExtended()) {
+            // symbols of the next section from here on
+            enterSection(sectionNumber + 1);
+            baseRegister = -1;
+            literalPool++;
+        } else if (opcode == OpcodeTable.LTORG && !line.isExtended()) {
+            // and literals of the next pool
+            literalPool++;
+        }
+        if (opcode == null || noObjectCode(opcode)) {
             // these don't have an object code
             objectCode = "";
         } else {
-            objectCode = getObjectCode(OPCODE, OPERAND);
-        }
-        String text;
-        String err = getErrors(ERRORS);
-        if (!empty(err)) {
+            objectCode = getObjectCode(line);
             // Couldn't find symbol when getting object code
+            line.addErrors(errors);
+            resetErrors();
+        }
+        if (line.hasErrors()) {
             // has errors
             objectCode = "";
-            ERRORS += " " + (getErrors());
-            flags[0] = true;    // has errors
-            text = makeListingLine(ADDRESS, "", SOURCE_LINE);
-        } else {
-            if (!noObjectCode(OPCODE) && !objectCode.isEmpty() && !eq(OPCODE, "BYTE")) // if has object code
-                objectCode = prependZero(objectCode, 6 - objectCode.length());
-            text = makeListingLine(ADDRESS, objectCode, SOURCE_LINE);
+        } else if (opcode == OpcodeTable.WORD && !objectCode.isEmpty()) {
+            // a word is 3 bytes
+            objectCode = prependZero(objectCode, 6 - objectCode.length());
         }
+        return objectCode;
+    }
 
-        listingText.append(text);
-        listingText.append("\n");
-        // append any errors
-        if (!empty(err)) {
-            listingText.append(getErrors(ERRORS));
-            listingText.append("\n");
+    private void enterSection(int number) {
+        sectionNumber = number;
+        if (!sections.isEmpty()) {
+            section = sections.get(number);
+            symbolTable = section.getSymbols();
         }
+    }
 
-        // object text check
-        if (eq(OPCODE, "RESW") || eq(OPCODE, "RESB")) {
-            if (objectTextRecord.length() > 0) {
-                objectText.append(textRecord(startAddress.toString(), objectTextRecord.toString()));
-                objectTextRecord.setLength(0);
-                startAddress.setLength(0);
-                startAddress.append(ADDRESS);
-                flags[1] = true;    // fromRES = true
+    private void resetPassTwo() {
+        enterSection(0);
+        baseRegister = -1;
+        literalPool = 0;
+    }
+
+    // encodes the lines on threads threads, into objectCodes, listings and the M records of each line.
+    // Only CSECT, BASE, NOBASE and LTORG carry anything from one line to the next, so a quick serial scan finds
+    // the section, base register and literal pool every chunk starts with; after that a worker Assembler per
+    // chunk only reads the (frozen) symbol and literal tables. pass2() then writes it all in source order,
+    // exactly as if it was serial
+    private void encodeInParallel(final String[] objectCodes, final String[] listings,
+                                  final String[] modifications) throws IOException {
+        final int size = (lines.size() + threads * 4 - 1) / (threads * 4);
+        int chunks = (lines.size() + size - 1) / size;
+        final int[] sectionNumbers = new int[chunks];
+        final long[] baseRegisters = new long[chunks];
+        final int[] literalPools = new int[chunks];
+        for (int x = 0; x < lines.size(); x++) {
+            if (x % size == 0) {
+                sectionNumbers[x / size] = sectionNumber;
+                baseRegisters[x / size] = baseRegister;
+                literalPools[x / size] = literalPool;
+            }
+            Line line = lines.get(x);
+            Opcode opcode = line.getOpcode();
+            if (line.isComment() || line.getAddress() < 0 || opcode == null) {
+                continue;
+            }
+            if (opcode == OpcodeTable.CSECT && !line.isExtended()) {
+                enterSection(sectionNumber + 1);
+                baseRegister = -1;
+                literalPool++;
+            } else if (opcode == OpcodeTable.LTORG && !line.isExtended()) {
+                literalPool++;
+            } else if (opcode == OpcodeTable.BASE || opcode == OpcodeTable.NOBASE) {
+                getObjectCode(line);
+                resetErrors();
             }
-        } else if (flags[1]) {      // if fromRES
-            startAddress.setLength(0);
-            startAddress.append(ADDRESS);
-            flags[1] = false;       // fromRES = false
         }
+        resetPassTwo();
+
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int first = chunk * size;
+            final int last = Math.min(first + size, lines.size());
+            final int number = sectionNumbers[chunk];
+            final long base = baseRegisters[chunk];
+            final int pool = literalPools[chunk];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Assembler worker = new Assembler(Assembler.this);
+                    worker.enterSection(number);
+                    worker.baseRegister = base;
+                    worker.literalPool = pool;
+                    for (int x = first; x < last; x++) {
+                        Line line = lines.get(x);
+                        if (line.isComment() || line.getAddress() < 0)
+                            continue;
+                        objectCodes[x] = worker.encodeLine(line);
+                        listings[x] = worker.listingText(line, objectCodes[x]);
+                        if (worker.modificationRecords.length() > 0) {
+                            modifications[x] = worker.modificationRecords.toString();
+                            worker.modificationRecords.setLength(0);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+    }
 
-        if (objectTextRecord.length() + objectCode.length() < 61) {
-            // keep appending
-            objectTextRecord.append(objectCode);
-        } else {
-            // too long, start new record
-            objectText.append(textRecord(startAddress.toString(), objectTextRecord.toString()));
-            objectTextRecord.setLength(0);
-            objectTextRecord.append(objectCode);
-            startAddress.setLength(0);
-            startAddress.append(ADDRESS);
+    // runs the tasks on threads threads and waits for all of them
+    private void invokeAll(List<Callable<Void>> tasks) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Future<Void> done : pool.invokeAll(tasks))
+                done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ASSEMBLY INTERRUPTED");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
         }
+    }
+
+    // T records textPacker still holds, at the end of a section
+    private void writeTextRecords() throws IOException {
+        textPacker.flush(textRecords);
+    }
+
+    private void writeListing(Line line, String objectCode) throws IOException {
+        listingWriter.writeLine(listingText(line, objectCode));
+    }
 
+    private String listingText(Line line, String objectCode) {
+        String listing = makeListingLine(Long.toHexString(line.getAddress()), objectCode, line.getSource());
+        // append any errors
+        return (line.hasErrors()) ? listing + "\n" + getErrors(line.getErrors()) : listing;
     }
 
-    private void handlePassTwoErrors(String[] lines, String OBJECT_FILE, StringBuilder listingText) {
-        // has errors, check if last line is also error line
-        String err = getErrors(lines[0]);
-        if (!empty(err)) {
-            listingText.append(err);
-            listingText.append("\n");
+    private void handlePassTwoErrors(long errors) throws IOException {
+        // has errors, check if the END line or the whole program has errors too
+        if (errors != 0) {
+            listingWriter.writeLine(getErrors(errors));
         }
-        File object = new File(OBJECT_FILE);
-        // if error found, delete object file if it exists
-        if (!object.exists() || object.delete())
-            System.out.println("OBJECT FILE COULDN'T BE CREATED, LOOK AT LISTING FILE...");
+        // if error found, delete object file
+        if (objectWriter.delete())
+            log("OBJECT FILE COULDN'T BE CREATED, LOOK AT LISTING FILE...");
     }
 
     private BufferedReader getReader(String fileName) {
@@ -436,15 +1599,9 @@ public class Assembler {
         }
     }
 
-    private void write(String fileName, String content) {
-        try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(new File(fileName)));
-            writer.write(content);
-            writer.flush();
-            writer.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    private void log(String message) {
+        if (verbose)
+            System.out.println(message);
     }
 
     private long num(String line, int base) {
@@ -458,7 +1615,7 @@ public class Assembler {
     }
 
     // byte methods
-    private int byteValue(String operand) {
+    int byteValue(String operand) {
         // error 7 = [0]!=c || [0]!=x
         // check for missing '
         // odd number in hex
@@ -472,7 +1629,7 @@ public class Assembler {
         if (operand.charAt(0) == 'x' || operand.charAt(0) == 'X') {
             if (m > 32) {
                 // byte hex too long
-                ERRTAB[9].setFlag(true);
+                setError(9);
                 return 0;
             }
 
@@ -480,154 +1637,131 @@ public class Assembler {
             if (m % 2 == 0) {
                 return m / 2;
             } else {
-                ERRTAB[10].setFlag(true);
+                setError(10);
                 return 0;
             }
         } else if (operand.charAt(0) == 'c' || operand.charAt(0) == 'C') {
             if (m > 30) {
                 // char directive too long
-                ERRTAB[8].setFlag(true);
+                setError(8);
                 return 0;
             }
             return m;
         } else {
             // illegal char before first '
-            ERRTAB[7].setFlag(true);
+            setError(7);
             return 0;
         }
     }
 
+    // object code of a BYTE operand, C'...' as the hex of its characters, X'...' as it is
+    private String byteCode(String operand) {
+        String inside = getInsideByteCode(operand);
+        if (inside == null) {
+            return "";
+        }
+        String objectCode = "";
+        if (operand.toUpperCase().charAt(0) == 'C') {
+            StringBuilder builder = new StringBuilder();
+            for (int y = 0; y < inside.length(); y++) {
+                String hex = Integer.toHexString((int) (inside.charAt(y)));
+                builder.append(hex);
+            }
+            objectCode = builder.toString();
+        } else if (operand.toUpperCase().charAt(0) == 'X') {
+            objectCode = inside;
+        }
+        return objectCode.toUpperCase();
+    }
+
     private String getInsideByteCode(String operand) {
         int first = operand.indexOf('\'');
         if (first < 0) {
-            ERRTAB[11].setFlag(true);
+            setError(11);
             return null;
         }
-        int second = first + operand.substring(first + 1).indexOf('\'');
+        int second = operand.indexOf('\'', first + 1);
 
         if (second < 0) {
-            ERRTAB[12].setFlag(true);
+            setError(12);
             return null;
         }
-        return operand.substring(first + 1, second + 1);
+        return operand.substring(first + 1, second);
     }
 
     // String methods
-    private boolean eq(String first, String second) {
-        return first.toUpperCase().trim().equals(second.toUpperCase().trim());
-    }
-
-    private boolean isComment(String source) {
-        return (source.length() > 0 && source.charAt(0) == '.');
+    private int skipSpace(String source, int x) {
+        while (x < source.length() && Tokenizer.isSpace(source.charAt(x))) x++;
+        return x;
     }
 
     private boolean empty(String source) {
-        return (source.trim().isEmpty());
+        return skipSpace(source, 0) == source.length();
     }
 
-    private boolean startEmpty(String source) {
-        return (source.length() > 0 && Character.isWhitespace(source.charAt(0)));
-    }
-
-    private String[] breakUp(String source) {
-        String[] words = {"", "", ""};
-        if (empty(source)) {
-            return words;
+    private boolean isAlphaNum(CharSequence source, int start, int end) {
+        for (int x = start; x < end; x++) {
+            char c = source.charAt(x);
+            if (!Character.isAlphabetic(c) && !Character.isDigit(c)) return false;
         }
+        return true;
+    }
 
-        String[] broken = source.split("\\s+");
-
-        if (startEmpty(source)) {
-            // no label
-            words[1] = broken[1];
-            if (broken.length > 2) words[2] = broken[2];
-
-        } else {
-            // has a label
-            words[0] = broken[0];
-            if (broken.length > 1) {
-                words[1] = broken[1];
-                if (broken.length > 2) words[2] = broken[2];
-            }
-        }
+    // could be a label: a letter, then letters and digits
+    private boolean isSymbol(String source) {
+        return isLabel(source, 0, source.length());
+    }
 
-        return words;
+    private boolean isLabel(CharSequence source, int start, int end) {
+        return end > start && Character.isAlphabetic(source.charAt(start)) && isAlphaNum(source, start, end);
     }
 
-    private boolean isAlphaNum(String source) {
-        for (int x = 0; x < source.length(); x++) {
-            char c = source.charAt(x);
-            if (!Character.isAlphabetic(c) && !Character.isDigit(c)) return false;
+    private boolean isDigit(CharSequence source, int start, int end) {
+        for (int x = start; x < end; x++) {
+            if (!Character.isDigit(source.charAt(x))) return false;
         }
         return true;
     }
 
     private boolean isDigit(String source) {
-        return IntStream.range(0, source.length()).allMatch(x -> Character.isDigit(source.charAt(x)));
+        return isDigit(source, 0, source.length());
     }
 
-    // symbol methods
-    private boolean hasSymbol(String key) {
-        return symbolTable.containsKey(key);
+    // operand ends with ,X
+    private boolean indexed(String OPERAND) {
+        int length = OPERAND.length();
+        return length >= 2 && OPERAND.charAt(length - 2) == ',' && Character.toUpperCase(OPERAND.charAt(length - 1)) == 'X';
     }
 
-    private long symbolAddress(String key) {
-        try {
-            return symbolTable.get(key);
-        } catch (NullPointerException e) {
-            return -1;
-        }
+    // symbol methods
+    private long symbolAddress(CharSequence source, int start, int end) {
+        int address = symbolTable.get(source, start, end);
+        return (address == SymbolTable.NOT_FOUND) ? -1 : address;
     }
 
-    private void addSymbol(String key, long address) {
-        symbolTable.put(key, address);
+    private long symbolAddress(String key) {
+        return symbolAddress(key, 0, key.length());
     }
 
     private boolean tooManySymbols() {
-        return symbolTable.size() > 500;
+        return symbolTable.size() > limits.getMaxSymbols();
     }
 
-    private boolean symbolTooLong(String symbol) {
-        return symbol.length() > 6;
-    }
-
-    // op table methods
-    private int searchOpcode(String mnemonic) {
-        Opcode opcode = new Opcode(mnemonic, 0);
-        int start = 0;
-        int middle = -1;
-        int end = OPTAB.length - 1;
-        boolean flag = false;
-        // binary search
-        while (start <= end) {
-
-            middle = (start + end) / 2;
-            if ((OPTAB[middle].equals(opcode))) {
-                flag = true;
-                break;
-            } else if (OPTAB[middle].compareTo(opcode) < 0) {
-                end = middle - 1;
-            } else if (OPTAB[middle].compareTo(opcode) > 0) {
-                start = middle + 1;
-            }
-        }
-
-        return (flag) ? middle : -1;
+    private boolean symbolTooLong(int length) {
+        return length > limits.getMaxSymbolLength();
     }
 
     // error methods
-    private void resetErrors() {
-        IntStream.range(0, ERRTAB.length).forEachOrdered(x -> ERRTAB[x].setFlag(false));
+    private void setError(int index) {
+        errors |= (1L << index);
     }
 
-    private String getErrors() {
-        StringBuilder builder = new StringBuilder();
-        for (int x = 0; x < ERRTAB.length; x++) builder.append((ERRTAB[x].isSet()) ? (x + " ") : "");
-        return builder.toString().trim();
+    private void resetErrors() {
+        errors = 0;
     }
 
     // listing file helpers
-    private String makeListingLine(String address, String objectCode, String source) {
+    private String makeListingLine(String address, String objectCode, CharSequence source) {
         if (empty(address) && empty(objectCode)) {
             return "\t\t\t\t" + source;
         }
@@ -637,121 +1771,489 @@ public class Assembler {
         return builder.trim();
     }
 
-    private boolean noObjectCode(String OPCODE) {
-        return eq(OPCODE, "START") || eq(OPCODE, "RESW") || eq(OPCODE, "RESB");
+    private boolean noObjectCode(Opcode opcode) {
+        return opcode == OpcodeTable.START || opcode == OpcodeTable.RESW || opcode == OpcodeTable.RESB
+                || opcode == OpcodeTable.CSECT || opcode == OpcodeTable.EXTREF || opcode == OpcodeTable.LTORG
+                || opcode == OpcodeTable.ORG || opcode == OpcodeTable.USE;
     }
 
-    private String getErrors(String errorLine) {
+    private boolean needsOperand(Opcode opcode) {
+        return opcode != OpcodeTable.RSUB && opcode != OpcodeTable.NOBASE && opcode != OpcodeTable.LTORG
+                && opcode != OpcodeTable.ORG && opcode != OpcodeTable.USE && opcode.getFormat() != 1;
+    }
 
-        if (empty(errorLine)) {
-            return "";
-        }
-        String[] arr = errorLine.trim().split("\\s+");
+    private String getErrors(long errors) {
         StringBuilder builder = new StringBuilder();
-        for (String anArr : arr) {
-            if (!empty(anArr)) {
-                int err = (int) num(anArr, 10);
-                if (err != -1) {
-                    // found error
-                    builder.append("> ");
-                    builder.append(ERRTAB[err].getDescription());
-                    builder.append("\n");
-                }
+        for (int x = 0; x < ERRTAB.length; x++) {
+            if ((errors & (1L << x)) != 0) {
+                // found error
+                builder.append("> ");
+                builder.append(ERRTAB[x].getDescription());
+                builder.append("\n");
             }
         }
 
         return builder.toString().trim();
     }
 
+    // intermediate file (debug dump), one record per line: address, opcode, operand, errors
+    private void writeIntermediate() throws IOException {
+        RecordWriter writer = new RecordWriter(INTERMEDIATE_FILE);
+        try {
+            for (Line line : lines) {
+                writer.writeLine(line.getSource());
+                if (line.isComment())
+                    continue;
+                writer.writeLine((line.getAddress() < 0) ? "" : Long.toHexString(line.getAddress()));
+                Opcode opcode = line.getOpcode();
+                writer.writeLine((opcode == null) ? "" :
+                        (opcode.isDirective()) ? opcode.getMnemonic() : Long.toHexString(opcode.getHexCode()));
+                writer.writeLine(line.getOperand());
+                writer.writeLine(Long.toHexString(line.getErrors()));
+            }
+            writer.writeLine(Long.toHexString(programErrors));
+        } finally {
+            writer.close();
+        }
+    }
+
     // object code methods
-    private String getObjectCode(String OPCODE, String OPERAND) {
-        boolean x = false;
-        String objectCode = OPCODE;
-        if (OPERAND.toUpperCase().endsWith(",X")) {
-            x = true;
-            OPERAND = OPERAND.substring(0, OPERAND.toUpperCase().indexOf(",X"));
+    String getObjectCode(Line line) {
+        Opcode opcode = line.getOpcode();
+        String OPERAND = line.getOperand();
+        if (opcode == OpcodeTable.BYTE) {
+            // BYTE
+            return byteCode(OPERAND);
+        } else if (opcode == OpcodeTable.WORD) {
+            // WORD
+            if (isSymbol(OPERAND) || Expression.isExpression(OPERAND, 0, OPERAND.length()))
+                return wordAddress(line, OPERAND);
+            long n = num(OPERAND, 10);
+            if (n == -1) {
+                setError(20);
+                return "";
+            }
+            return Long.toHexString(n).toUpperCase();
+        } else if (opcode == OpcodeTable.EXTDEF) {
+            // every symbol it exports has to be defined in the section
+            for (String name : OPERAND.split(",")) {
+                if (!name.isEmpty() && !symbolTable.contains(name))
+                    setError(23);
+            }
+            return "";
+        } else if (opcode == OpcodeTable.BASE) {
+            if (Expression.isExpression(OPERAND, 0, OPERAND.length())) {
+                baseRegister = expressionValue(line, OPERAND, 0, OPERAND.length());
+            } else {
+                baseRegister = symbolAddress(OPERAND);
+                if (baseRegister == -1)
+                    setError(23);
+            }
+            return "";
+        } else if (opcode == OpcodeTable.EQU) {
+            // pass 1 gave the label its value if it could, only what is still wrong is left
+            if (!empty(OPERAND)) {
+                int status = expression.evaluate(OPERAND, 0, OPERAND.length(), line.getAddress());
+                if (status == Expression.UNDEFINED)
+                    setError(23);
+                else if (status == Expression.ILLEGAL || !expression.getExternals().isEmpty())
+                    setError(32);
+            }
+            return "";
+        } else if (opcode == OpcodeTable.NOBASE) {
+            baseRegister = -1;
+            return "";
+        } else if (opcode.getFormat() == 1) {
+            return hex(opcode.getHexCode(), 2);
+        } else if (opcode.getFormat() == 2) {
+            return formatTwo(opcode, OPERAND);
+        } else if (xeProgram) {
+            return formatThree(line, opcode, OPERAND);
         }
-        long address = symbolAddress(OPERAND);
 
+        // SIC: opcode, x bit and a 15 bit address
+        boolean x = indexed(OPERAND);
+        int end = OPERAND.length() - ((x) ? 2 : 0);
+        boolean literal = OPERAND.startsWith("=");
+        boolean computed = !literal && Expression.isExpression(OPERAND, 0, end);
+        long address = (literal) ? literalAddress(opcode, OPERAND)
+                : (computed) ? expressionValue(line, OPERAND, 0, end) : symbolAddress(OPERAND, 0, end);
+        String external = null;
+        if (address == -1 && !computed && isExternal(OPERAND, 0, end)) {
+            external = OPERAND.substring(0, end);
+            address = 0;
+        }
+        boolean symbol = address != -1;
+
+        if (address > 0x7FFF) {
+            // only 15 bits, the 16th is x. A large program needs SIC/XE format 4 up there
+            setError(28);
+            return "";
+        }
         if (x && address != -1) {
             // if has ,x and is in symbol table
             address = address | 32768;
         }
 
         if (address == -1) {
-            if (eq(OPCODE, "4c")) {
+            if (opcode == OpcodeTable.RSUB) {
                 // rsub code
-                objectCode += "0000";
-            } else if (eq(OPCODE, "BYTE")) {
-                // BYTE
-                String inside = getInsideByteCode(OPERAND);
-                if (inside == null) {
-                    return "";
-                }
-                if (OPERAND.toUpperCase().charAt(0) == 'C') {
-                    StringBuilder builder = new StringBuilder();
-                    for (int y = 0; y < inside.length(); y++) {
-                        String hex = Integer.toHexString((int) (inside.charAt(y)));
-                        builder.append(hex);
-                    }
-                    objectCode = builder.toString();
-                } else if (OPERAND.toUpperCase().charAt(0) == 'X') {
-                    objectCode = inside;
-                }
-            } else if (eq(OPCODE, "WORD")) {
-                // WORD
-                long n = num(OPERAND, 10);
-                if (n == -1) {
-                    ERRTAB[20].setFlag(true);
-                    return "";
-                } else
-                    objectCode = Long.toHexString(n);
+                address = 0;
             } else {
-                // no such symbol
-                ERRTAB[23].setFlag(true);
+                // no such symbol, an illegal literal or expression already has its error
+                if (!literal && !computed)
+                    setError(23);
                 return "";
             }
+        }
+        if (computed) {
+            modifyExpression(line.getAddress() + 1, 4);
+        } else if (symbol && (external != null || !isAbsolute(OPERAND, 0, end))) {
+            // x bit and address
+            modify(line.getAddress() + 1, 4, external);
+        }
+        return hex(((long) opcode.getHexCode() << 16) | address, 6);
+    }
+
+    // address of the =literal OPERAND in the pool of the line, -1 if it is illegal (ERRTAB[31])
+    private long literalAddress(Opcode opcode, String OPERAND) {
+        String value = literalValue(opcode, OPERAND);
+        int address = (value == null) ? SymbolTable.NOT_FOUND : literals.get(literalPool, value);
+        return (address == SymbolTable.NOT_FOUND) ? -1 : address;
+    }
+
+    // WORD symbol or expression: its value, relocated (or filled in by the linker) through M records unless
+    // it is absolute
+    private String wordAddress(Line line, String OPERAND) {
+        if (Expression.isExpression(OPERAND, 0, OPERAND.length())) {
+            long value = expressionValue(line, OPERAND, 0, OPERAND.length());
+            if (value == -1)
+                return "";
+            modifyExpression(line.getAddress(), 6);
+            return Long.toHexString(value).toUpperCase();
+        }
+        long address = symbolAddress(OPERAND);
+        String external = null;
+        if (address == -1 && isExternal(OPERAND, 0, OPERAND.length())) {
+            external = OPERAND;
+            address = 0;
+        }
+        if (address == -1) {
+            setError(23);
+            return "";
+        }
+        if (external != null || !isAbsolute(OPERAND, 0, OPERAND.length()))
+            modify(line.getAddress(), 6, external);
+        return Long.toHexString(address).toUpperCase();
+    }
+
+    // value of the expression OPERAND[start, end) on line, a 24 bit word, -1 if it has none (ERRTAB[23] or
+    // ERRTAB[32] is set). expression then tells if it is relative and which external symbols it has
+    private long expressionValue(Line line, String OPERAND, int start, int end) {
+        int status = expression.evaluate(OPERAND, start, end, line.getAddress());
+        if (status == Expression.UNDEFINED) {
+            setError(23);
+            return -1;
+        } else if (status == Expression.ILLEGAL) {
+            setError(32);
+            return -1;
+        }
+        return expression.getValue() & 0xFFFFFF;
+    }
+
+    // M records for the expression just evaluated: the section's load address once if it is relative, and
+    // every external symbol with its sign
+    private void modifyExpression(long address, int halfBytes) {
+        if (expression.isRelative())
+            modify(address, halfBytes, null);
+        for (String external : expression.getExternals())
+            modify(address, halfBytes, external.charAt(0), external.substring(1));
+    }
+
+    // M record for the halfBytes half-bytes at address: add the address of the external symbol, or the
+    // section's load address if there is none (only if the program is relocatable at all)
+    private void modify(long address, int halfBytes, String external) {
+        modify(address, halfBytes, '+', external);
+    }
+
+    // sign is + or -, the external symbol's address is added or subtracted
+    private void modify(long address, int halfBytes, char sign, String external) {
+        if (external == null && !relocatable)
+            return;
+        modificationRecords.append('M');
+        appendHex(modificationRecords, address, 6);
+        appendHex(modificationRecords, halfBytes, 2);
+        if (external != null)
+            modificationRecords.append(sign).append(external.toUpperCase());
+        modificationRecords.append('\n');
+    }
+
+    // r1,r2 / r1 / r1,n / n
+    private String formatTwo(Opcode opcode, String OPERAND) {
+        int comma = OPERAND.indexOf(',');
+        String first = (comma < 0) ? OPERAND : OPERAND.substring(0, comma);
+        String second = (comma < 0) ? "" : OPERAND.substring(comma + 1);
+        int r1;
+        int r2 = 0;
+        if (opcode == OpcodeTable.SVC) {
+            r1 = (comma < 0 && isDigit(first)) ? (int) num(first, 10) : -1;
         } else {
-            // normal cases, found symbol
-            objectCode += Long.toHexString(address);
+            r1 = OpcodeTable.register(first, 0, first.length());
+            if (opcode == OpcodeTable.SHIFTL || opcode == OpcodeTable.SHIFTR) {
+                // shift count n is stored as n - 1
+                long n = (isDigit(second)) ? num(second, 10) : -1;
+                r2 = (int) n - 1;
+                if (n < 1 || n > 16)
+                    r1 = -1;
+            } else if (opcode == OpcodeTable.CLEAR || opcode == OpcodeTable.TIXR) {
+                if (comma >= 0)
+                    r1 = -1;
+            } else {
+                r2 = OpcodeTable.register(second, 0, second.length());
+            }
+        }
+        if (r1 < 0 || r1 > 15 || r2 < 0) {
+            setError(25);
+            return "";
         }
+        return hex((opcode.getHexCode() << 8) | (r1 << 4) | r2, 4);
+    }
 
-        objectCode = objectCode.toUpperCase();
+    // SIC/XE format 3 and 4: n i x b p e flags, then a displacement or a 20 bit address
+    private String formatThree(Line line, Opcode opcode, String OPERAND) {
+        final long N = 2, I = 1, X = 8, B = 4, P = 2, E = 1;
+        long ni = N | I;
+        long xbpe = (line.isExtended()) ? E : 0;
+        // operand is OPERAND[start, end) once #, @ and ,X are taken off
+        int start = 0;
+        int end = OPERAND.length();
+        if (opcode == OpcodeTable.RSUB) {
+            OPERAND = "0";
+            end = 1;
+        } else if (OPERAND.startsWith("#")) {
+            ni = I;
+            start = 1;
+        } else if (OPERAND.startsWith("@")) {
+            ni = N;
+            start = 1;
+        }
+        if (indexed(OPERAND)) {
+            if (ni != (N | I)) {
+                setError(26);
+                return "";
+            }
+            xbpe |= X;
+            end -= 2;
+        }
 
-        return objectCode;
+        // a number is used as is, a symbol or a literal is an address, an expression is either
+        boolean constant = end > start && isDigit(OPERAND, start, end);
+        boolean literal = start == 0 && OPERAND.startsWith("=");
+        boolean computed = !constant && !literal && Expression.isExpression(OPERAND, start, end);
+        long address = (constant) ? num(OPERAND.substring(start, end), 10)
+                : (literal) ? literalAddress(opcode, OPERAND)
+                : (computed) ? expressionValue(line, OPERAND, start, end) : symbolAddress(OPERAND, start, end);
+        String external = null;
+        if (computed && address != -1 && !expression.getExternals().isEmpty() && !line.isExtended()) {
+            setError(30);
+            return "";
+        }
+        if (!constant && !computed && address == -1 && isExternal(OPERAND, start, end)) {
+            // only the 20 bit address of format 4 can be filled in by the linker
+            if (!line.isExtended()) {
+                setError(30);
+                return "";
+            }
+            external = OPERAND.substring(start, end);
+            address = 0;
+        }
+        if (address == -1) {
+            if (!literal && !computed)
+                setError(23);
+            return "";
+        }
+        // absolute symbols and expressions don't move with the program either
+        boolean absolute = constant || ((computed) ? !expression.isRelative() && expression.getExternals().isEmpty()
+                : !literal && external == null && isAbsolute(OPERAND, start, end));
+        long first = opcode.getHexCode() | ni;
+
+        if (line.isExtended()) {
+            if (address > 0xFFFFF) {
+                setError(24);
+                return "";
+            }
+            if (computed)
+                modifyExpression(line.getAddress() + 1, 5);
+            else if (!absolute)
+                modify(line.getAddress() + 1, 5, external);
+            return hex((first << 24) | (xbpe << 20) | address, 8);
+        }
+
+        long disp;
+        long pc = line.getAddress() + 3;
+        if (absolute && address <= 0xFFF) {
+            disp = address;
+        } else if (address - pc >= -2048 && address - pc <= 2047) {
+            xbpe |= P;
+            disp = (address - pc) & 0xFFF;
+        } else if (baseRegister >= 0 && address - baseRegister >= 0 && address - baseRegister <= 0xFFF) {
+            xbpe |= B;
+            disp = address - baseRegister;
+        } else if (address <= 0xFFF) {
+            // direct: moves with the program
+            disp = address;
+            modify(line.getAddress() + 1, 3, null);
+        } else {
+            setError(24);
+            return "";
+        }
+        return hex((first << 16) | (xbpe << 12) | disp, 6);
+    }
+
+    private String hex(long value, int digits) {
+        String hex = Long.toHexString(value).toUpperCase();
+        return prependZero(hex, digits - hex.length());
     }
 
     private String prependZero(String source, int num) {
-        StringBuilder sourceBuilder = new StringBuilder(source);
+        if (num <= 0)
+            return source;
+        StringBuilder sourceBuilder = new StringBuilder(source.length() + num);
         for (int x = 0; x < num; x++) {
-            sourceBuilder.insert(0, '0');
+            sourceBuilder.append('0');
         }
-        source = sourceBuilder.toString();
+        return sourceBuilder.append(source).toString();
+    }
 
-        return source;
+    // appends value as exactly digits uppercase hex digits
+    private static StringBuilder appendHex(StringBuilder builder, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            builder.append(Character.toUpperCase(Character.forDigit((int) (value >>> shift) & 0xF, 16)));
+        }
+        return builder;
     }
 
     // object file methods
-    private String headerRecord() {
-        String hex = Long.toHexString(STARTING_ADDRESS);
-        String builder = "H" +
-                PROGRAM_NAME + "  " +
-                prependZero(hex, 6 - hex.length()) +
-                Long.toHexString(PROGRAM_LENGTH) + "\n";
-        return builder.toUpperCase();
+    // fixed columns: H, name (6), start address (6), length (6). Addresses go up to FFFFFF
+    private String headerRecord(String name, long start, long length) {
+        StringBuilder builder = new StringBuilder(20).append('H');
+        appendName(builder, name);
+        appendHex(builder, start, 6);
+        appendHex(builder, length, 6);
+        return builder.append('\n').toString();
+    }
+
+    private static void appendName(StringBuilder builder, String name) {
+        name = name.toUpperCase();
+        builder.append(name, 0, Math.min(NAME_LENGTH, name.length()));
+        for (int x = name.length(); x < NAME_LENGTH; x++) builder.append(' ');
+    }
+
+    // H record of the section, then its D records (6 symbols each) and R records (12 each)
+    private void writeSectionHeader(Section section) throws IOException {
+        objectWriter.write(headerRecord(section.getName(), section.getStartingAddress(), section.getLength()));
+        StringBuilder builder = new StringBuilder(80);
+        int count = 0;
+        for (String name : section.getDefinitions()) {
+            int address = section.getSymbols().get(name);
+            // undefined ones are an error on the EXTDEF line
+            if (address == SymbolTable.NOT_FOUND)
+                continue;
+            if (count++ % 6 == 0)
+                builder.append((builder.length() == 0) ? "D" : "\nD");
+            appendName(builder, name);
+            appendHex(builder, address, 6);
+        }
+        for (int x = 0; x < section.getReferences().size(); x++) {
+            if (x % 12 == 0)
+                builder.append((builder.length() == 0) ? "R" : "\nR");
+            appendName(builder, section.getReferences().get(x));
+        }
+        if (builder.length() > 0)
+            objectWriter.write(builder.append('\n'));
     }
 
-    private String textRecord(String address, String text) {
-        address = prependZero(address, 6 - address.length());
-        String length = Long.toHexString(text.length() / 2);
-        length = prependZero(length, 2 - length.length());
-        return ("T" + address + length + text + "\n").toUpperCase();
+    // T, start address (6), length in bytes (2), up to 60 hex digits of object code
+    String textRecord(long address, CharSequence text) {
+        StringBuilder builder = new StringBuilder(10 + text.length()).append('T');
+        appendHex(builder, address, 6);
+        appendHex(builder, text.length() / 2, 2);
+        // object code is already uppercase
+        return builder.append(text).append('\n').toString();
     }
 
-    private String endRecord() {
-        String hex = Long.toHexString(STARTING_ADDRESS);
-        String builder = "E" + prependZero(hex, 6 - hex.length());
-        return builder.toUpperCase();
+    // only the first section says where to start
+    private String endRecord(boolean first) {
+        if (!first)
+            return "E";
+        return appendHex(new StringBuilder(7).append('E'), STARTING_ADDRESS, 6).toString();
+    }
+
+    // lines [first, last) of the source as sized by one pass 1 worker, last is right after the END if it has one
+    private static class Chunk {
+        final int first;
+        final int end;                      /* of the lines given */
+        int last;
+        final Line[] lines;                 /* comments and the END right away, the rest once placed */
+        final Opcode[] opcodes;
+        final boolean[] extended;
+        final String[] operands;            /* null if blank, a comment or the END */
+        final long[] errors;
+        final int[] labelEnds;              /* 0 if no label */
+        final long[] labelErrors;
+        final long[] sizes;
+        final String[] literals;            /* value of the line's literal, null if none */
+        final boolean[] deferred;           /* sized by placeInOrder(), see needsSymbols() */
+        int literalCount = 0;
+        final SymbolTable symbols;          /* addresses from 0 */
+        long length = 0;
+        boolean hasEnd = false;
+        boolean inOrder = false;            /* has CSECT, EXTDEF, EXTREF, LTORG or deferred lines */
+        boolean xeProgram = false;
+        long opcodeHits = 0;
+        long opcodeMisses = 0;
+        long start = 0;                     /* LOCCTR of the first line */
+        long[] addresses;                   /* only if placed line by line */
+        SymbolTable duplicates;             /* labels already defined before the chunk */
+        Map<Integer, List<Line>> pools;     /* literal records that go before line at */
+
+        Chunk(int first, int end) {
+            this.first = first;
+            this.end = end;
+            this.last = end;
+            int size = end - first;
+            lines = new Line[size];
+            opcodes = new Opcode[size];
+            extended = new boolean[size];
+            operands = new String[size];
+            errors = new long[size];
+            labelEnds = new int[size];
+            labelErrors = new long[size];
+            sizes = new long[size];
+            literals = new String[size];
+            deferred = new boolean[size];
+            symbols = new SymbolTable(Math.min(size, 4096));
+        }
+
+        void makeLines(List<CharSequence> text) {
+            long address = start;
+            for (int x = first; x < last; x++) {
+                int at = x - first;
+                if (operands[at] == null || lines[at] != null)
+                    continue;
+                long lineErrors = errors[at] | labelErrors[at];
+                if (addresses != null) {
+                    address = addresses[at];
+                } else if (duplicates != null && labelEnds[at] > 0 && labelErrors[at] == 0
+                        && duplicates.contains(text.get(x), 0, labelEnds[at])) {
+                    // duplicate label
+                    lineErrors |= 1;
+                }
+                lines[at] = new Line(text.get(x), address, opcodes[at], extended[at], operands[at], lineErrors);
+                if (addresses == null)
+                    address += sizes[at];
+            }
+        }
     }
 
     public static void main(String[] args) {
@@ -759,6 +2261,42 @@ public class Assembler {
         System.out.print("Type in SIC asm file:\n> ");
         String in = scanner.next().trim();
         Assembler assembler = new Assembler(in);
-        assembler.assemble();
+        for (String arg : args) {
+            // "-i" also writes the pass 1 records to the intermediate file
+            if (arg.equals("-i"))
+                assembler.setDumpIntermediate(true);
+            // "-m" memory maps the source
+            if (arg.equals("-m"))
+                assembler.setMemoryMapped(true);
+            // "-l" lifts the classic limits, see Limits.LARGE
+            if (arg.equals("-l"))
+                assembler.setLimits(Limits.LARGE);
+            // "-c" reuses (and keeps) outputs in the .sic-cache directory
+            if (arg.equals("-c"))
+                assembler.setCache(new AssemblyCache(new File(".sic-cache")));
+            // "-b" also writes the object program in the binary format, object.sob
+            if (arg.equals("-b"))
+                assembler.setBinaryObject(true);
+            // "-j" writes the run's metrics to metrics.json
+            if (arg.equals("-j"))
+                assembler.setMetrics(new Metrics());
+            // "-p" assembles on every core
+            if (arg.equals("-p"))
+                assembler.setThreads(Runtime.getRuntime().availableProcessors());
+        }
+        try {
+            assembler.assemble();
+            if (assembler.getMetrics() != null) {
+                RecordWriter json = new RecordWriter("metrics.json");
+                try {
+                    json.write(assembler.getMetrics().toJson());
+                } finally {
+                    json.close();
+                }
+            }
+        } catch (IOException e) {
+            // no point in going if main source can't be loaded
+            System.out.println(e.getMessage());
+        }
     }
 }
@@ -0,0 +1,207 @@
+package com.bittle.SIC;
+
+import com.bittle.SIC.utils.AssemblyCache;
+import com.bittle.SIC.utils.Limits;
+import com.bittle.SIC.utils.Metrics;
+import com.bittle.SIC.utils.SymbolTable;
+import com.bittle.SIC.utils.Tokenizer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+// stays running and assembles files on request, so the JVM start up and JIT warm up are paid once.
+// Line protocol on stdin/stdout, one request per line:
+//   ASSEMBLE <file>    OK|ERRORS <ms>, then OBJECT <n> and n lines, LISTING <n> and n lines, END
+//                      or FAILED <message> if the file couldn't be read or assembling it failed
+//   STATS              STATS followed by the counters
+//   METRICS            METRICS <n> and the n lines of the last request's metrics (JSON), with -j only
+//   QUIT               ends the server (so does the end of stdin)
+// the tokenizer and the symbol table are kept from one request to the next
+public class AssemblerServer {
+    private final String outputDirectory;
+    private Limits limits = Limits.CLASSIC;
+    private AssemblyCache cache;
+    private AssemblerStats stats;       /* null unless metrics are collected */
+
+    private final Tokenizer tokenizer = new Tokenizer();
+    private SymbolTable symbolTable = new SymbolTable(limits.expectedSymbols());
+
+    // counters
+    private final long startNanos = System.nanoTime();
+    private long requests = 0;
+    private long failures = 0;
+    private long totalLines = 0;
+    private long busyNanos = 0;
+    private long maxNanos = 0;
+    private final long[] latencies = new long[64];     /* bucket x = requests that took < 2^x ns */
+
+    public AssemblerServer(String outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public void setLimits(Limits limits) {
+        this.limits = limits;
+        symbolTable = new SymbolTable(limits.expectedSymbols());
+    }
+
+    public void setCache(AssemblyCache cache) {
+        this.cache = cache;
+    }
+
+    // collect the metrics of every request into stats (and JMX)
+    public void setStats(AssemblerStats stats) {
+        this.stats = stats;
+    }
+
+    public void serve(BufferedReader in, Writer out) throws IOException {
+        String request;
+        while ((request = in.readLine()) != null) {
+            request = request.trim();
+            if (request.isEmpty())
+                continue;
+            if (request.equalsIgnoreCase("QUIT"))
+                break;
+            if (request.equalsIgnoreCase("STATS")) {
+                out.write("STATS\n" + stats() + "\n");
+            } else if (request.equalsIgnoreCase("METRICS") && stats != null) {
+                String json = stats.getLastRunJson().trim();
+                writeSection("METRICS", (json.isEmpty()) ? null : Arrays.asList(json.split("\n")), out);
+            } else if (request.regionMatches(true, 0, "ASSEMBLE ", 0, 9)) {
+                assemble(request.substring(9).trim(), out);
+            } else {
+                out.write("FAILED UNKNOWN REQUEST " + request + "\n");
+            }
+            out.flush();
+        }
+        out.flush();
+    }
+
+    private void assemble(String sourceFile, Writer out) throws IOException {
+        long start = System.nanoTime();
+        Assembler assembler = null;
+        boolean created;
+        List<String> object;
+        List<String> listing;
+        try {
+            assembler = new Assembler(sourceFile, outputDirectory);
+            assembler.setVerbose(false);
+            assembler.setLimits(limits);
+            assembler.setCache(cache);
+            symbolTable.clear();
+            assembler.reuse(tokenizer, symbolTable);
+            if (stats != null)
+                assembler.setMetrics(new Metrics());
+
+            created = assembler.assemble();
+            object = (created) ? readLines(assembler.getObjectFile()) : null;
+            listing = readLines(assembler.getListingFile());
+        } catch (IOException | RuntimeException e) {
+            // the request fails, the server keeps going
+            count(start, false, 0);
+            out.write("FAILED " + ((e.getMessage() == null) ? e.toString() : e.getMessage()) + "\n");
+            return;
+        } finally {
+            if (stats != null && assembler != null && assembler.getMetrics() != null)
+                stats.add(assembler.getMetrics());
+        }
+        long nanos = count(start, created, assembler.getSourceLines());
+
+        out.write(((created) ? "OK " : "ERRORS ") + String.format("%.3f", nanos / 1e6) + "\n");
+        writeSection("OBJECT", object, out);
+        writeSection("LISTING", listing, out);
+        out.write("END\n");
+    }
+
+    private static List<String> readLines(String fileName) throws IOException {
+        return Files.readAllLines(new File(fileName).toPath());
+    }
+
+    private static void writeSection(String name, List<String> lines, Writer out) throws IOException {
+        if (lines == null) {
+            out.write(name + " 0\n");
+            return;
+        }
+        out.write(name + " " + lines.size() + "\n");
+        for (String line : lines) {
+            out.write(line);
+            out.write('\n');
+        }
+    }
+
+    // returns how long the request took
+    private long count(long start, boolean created, long lines) {
+        long nanos = System.nanoTime() - start;
+        requests++;
+        if (!created)
+            failures++;
+        totalLines += lines;
+        busyNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        latencies[64 - Long.numberOfLeadingZeros(nanos)]++;
+        return nanos;
+    }
+
+    // upper bound of the latency under which fraction of the requests finished, in ns
+    private long percentile(double fraction) {
+        long wanted = (long) Math.ceil(requests * fraction);
+        long seen = 0;
+        for (int x = 0; x < latencies.length; x++) {
+            seen += latencies[x];
+            if (seen >= wanted && seen > 0)
+                return Math.min(1L << x, maxNanos);
+        }
+        return maxNanos;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public String stats() {
+        double uptime = (System.nanoTime() - startNanos) / 1e9;
+        return String.format("REQUESTS %d%nFAILED %d%nLINES %d%n" +
+                        "AVERAGE %.3f ms%nP50 %.3f ms%nP99 %.3f ms%nMAX %.3f ms%n" +
+                        "REQUESTS/s %.1f (BUSY %.1f)%nLINES/s %.0f (BUSY %.0f)%nUPTIME %.1f s",
+                requests, failures, totalLines,
+                (requests == 0) ? 0 : busyNanos / 1e6 / requests, percentile(0.5) / 1e6, percentile(0.99) / 1e6,
+                maxNanos / 1e6,
+                requests / uptime, requests * 1e9 / Math.max(1, busyNanos),
+                totalLines / uptime, totalLines * 1e9 / Math.max(1, busyNanos), uptime);
+    }
+
+    // usage: AssemblerServer [-o outputDirectory] [-l] [-c cacheDirectory] [-j]
+    // -j collects metrics, shown over JMX and by METRICS
+    // outputs go in a temporary directory unless -o is given
+    public static void main(String[] args) throws IOException {
+        String outputDirectory = null;
+        boolean large = false;
+        AssemblyCache cache = null;
+        boolean metrics = false;
+        for (int x = 0; x < args.length; x++) {
+            if (args[x].equals("-o") && x + 1 < args.length) {
+                outputDirectory = args[++x];
+            } else if (args[x].equals("-c") && x + 1 < args.length) {
+                cache = new AssemblyCache(new File(args[++x]));
+            } else if (args[x].equals("-l")) {
+                large = true;
+            } else if (args[x].equals("-j")) {
+                metrics = true;
+            }
+        }
+        if (outputDirectory == null)
+            outputDirectory = Files.createTempDirectory("sic-server").toString();
+        else if (!new File(outputDirectory).isDirectory() && !new File(outputDirectory).mkdirs())
+            throw new IOException("COULDN'T CREATE OUTPUT DIRECTORY " + outputDirectory);
+
+        AssemblerServer server = new AssemblerServer(outputDirectory);
+        if (large)
+            server.setLimits(Limits.LARGE);
+        server.setCache(cache);
+        if (metrics)
+            server.setStats(AssemblerStats.get());
+        server.serve(new BufferedReader(new InputStreamReader(System.in)),
+                new BufferedWriter(new OutputStreamWriter(System.out)));
+    }
+}
@@ -0,0 +1,156 @@
+package com.bittle.SIC;
+
+import com.bittle.SIC.utils.Metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+// adds up the Metrics of every assembly, registered once as com.bittle.SIC:type=AssemblerStats.
+// BatchAssembler adds from many threads, so every method is synchronized
+public class AssemblerStats implements AssemblerStatsMBean {
+    public static final String NAME = "com.bittle.SIC:type=AssemblerStats";
+    private static AssemblerStats instance;
+
+    private long assemblies = 0;
+    private long failures = 0;
+    private long cacheHits = 0;
+    private long sourceLines = 0;
+    private long objectBytes = 0;
+    private long textRecords = 0;
+    private long pass1Nanos = 0;
+    private long pass2Nanos = 0;
+    private long writeNanos = 0;
+    private long opcodeHits = 0;
+    private long opcodeMisses = 0;
+    private long allocatedBytes = 0;
+    private long allocatedLines = 0;    /* lines of the runs whose allocation is known */
+    private final long[] errors = new long[Assembler.ERROR_TYPES];
+    private Metrics last;
+
+    // the registered instance, registering it with the platform MBean server the first time
+    public static synchronized AssemblerStats get() {
+        if (instance == null) {
+            instance = new AssemblerStats();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(NAME);
+                if (!server.isRegistered(name))
+                    server.registerMBean(instance, name);
+            } catch (JMException e) {
+                // still counts, only not visible over JMX
+                System.out.println("COULDN'T REGISTER " + NAME + ": " + e.getMessage());
+            }
+        }
+        return instance;
+    }
+
+    public synchronized void add(Metrics metrics) {
+        assemblies++;
+        if (!metrics.isCreated())
+            failures++;
+        if (metrics.getCache().equals("HIT"))
+            cacheHits++;
+        sourceLines += metrics.getSourceLines();
+        objectBytes += metrics.getObjectBytes();
+        textRecords += metrics.getTextRecords();
+        pass1Nanos += metrics.getPass1Nanos();
+        pass2Nanos += metrics.getPass2Nanos();
+        writeNanos += metrics.getWriteNanos();
+        opcodeHits += metrics.getOpcodeHits();
+        opcodeMisses += metrics.getOpcodeMisses();
+        if (metrics.getAllocatedBytes() >= 0) {
+            allocatedBytes += metrics.getAllocatedBytes();
+            allocatedLines += metrics.getSourceLines();
+        }
+        for (int x = 0; x < errors.length; x++)
+            errors[x] += metrics.getErrors(x);
+        last = metrics;
+    }
+
+    @Override
+    public synchronized long getAssemblies() {
+        return assemblies;
+    }
+
+    @Override
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    @Override
+    public synchronized long getSourceLines() {
+        return sourceLines;
+    }
+
+    @Override
+    public synchronized long getObjectBytes() {
+        return objectBytes;
+    }
+
+    @Override
+    public synchronized long getTextRecords() {
+        return textRecords;
+    }
+
+    @Override
+    public synchronized double getPass1Millis() {
+        return pass1Nanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getPass2Millis() {
+        return pass2Nanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getWriteMillis() {
+        return writeNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getLinesPerSecond() {
+        return sourceLines * 1e9 / Math.max(1, pass1Nanos + pass2Nanos);
+    }
+
+    @Override
+    public synchronized long getOpcodeHits() {
+        return opcodeHits;
+    }
+
+    @Override
+    public synchronized long getOpcodeMisses() {
+        return opcodeMisses;
+    }
+
+    @Override
+    public synchronized int getLastSymbols() {
+        return (last == null) ? 0 : last.getSymbols();
+    }
+
+    @Override
+    public synchronized double getLastSymbolLoadFactor() {
+        return (last == null) ? 0 : last.loadFactor();
+    }
+
+    @Override
+    public synchronized double getAllocatedBytesPerLine() {
+        return (allocatedLines == 0) ? -1 : (double) allocatedBytes / allocatedLines;
+    }
+
+    @Override
+    public synchronized long[] getErrorCounts() {
+        return errors.clone();
+    }
+
+    @Override
+    public synchronized String getLastRunJson() {
+        return (last == null) ? "" : last.toJson();
+    }
+}
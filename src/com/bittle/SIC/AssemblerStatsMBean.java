@@ -0,0 +1,39 @@
+package com.bittle.SIC;
+
+// what AssemblerStats shows over JMX, totals of every assembly since the JVM started
+public interface AssemblerStatsMBean {
+    long getAssemblies();
+
+    long getFailures();
+
+    long getCacheHits();
+
+    long getSourceLines();
+
+    long getObjectBytes();
+
+    long getTextRecords();
+
+    double getPass1Millis();
+
+    double getPass2Millis();
+
+    double getWriteMillis();
+
+    double getLinesPerSecond();
+
+    long getOpcodeHits();
+
+    long getOpcodeMisses();
+
+    int getLastSymbols();
+
+    double getLastSymbolLoadFactor();
+
+    double getAllocatedBytesPerLine();
+
+    // index = ERRTAB index
+    long[] getErrorCounts();
+
+    String getLastRunJson();
+}
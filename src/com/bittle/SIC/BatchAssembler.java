@@ -0,0 +1,211 @@
+package com.bittle.SIC;
+
+import com.bittle.SIC.utils.AssemblyCache;
+import com.bittle.SIC.utils.Limits;
+import com.bittle.SIC.utils.Metrics;
+import com.bittle.SIC.utils.RecordWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// assembles many source files at once, one Assembler (and its own outputs) per file
+public class BatchAssembler {
+    private final List<String> sourceFiles;
+    private final String outputDirectory;
+    private final int threads;
+    private Limits limits = Limits.CLASSIC;
+    private AssemblyCache cache;
+    private AssemblerStats stats;
+    private boolean writeMetrics = false;
+    private boolean binaryObject = false;
+
+    private int assembled = 0;
+    private int failed = 0;
+    private long totalLines = 0;
+    private long totalBytes = 0;
+    private long elapsedNanos = 0;
+
+    public BatchAssembler(List<String> sourceFiles, String outputDirectory) {
+        this(sourceFiles, outputDirectory, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchAssembler(List<String> sourceFiles, String outputDirectory, int threads) {
+        this.sourceFiles = sourceFiles;
+        this.outputDirectory = outputDirectory;
+        this.threads = threads;
+    }
+
+    public void setLimits(Limits limits) {
+        this.limits = limits;
+    }
+
+    // every file is assembled incrementally through cache, see Assembler.setCache()
+    public void setCache(AssemblyCache cache) {
+        this.cache = cache;
+    }
+
+    // every file also gets a binary object file, see Assembler.setBinaryObject()
+    public void setBinaryObject(boolean binaryObject) {
+        this.binaryObject = binaryObject;
+    }
+
+    // add the metrics of every file to stats, and if writeMetrics also write them to <name>.json next to its listing
+    public void setStats(AssemblerStats stats, boolean writeMetrics) {
+        this.stats = stats;
+        this.writeMetrics = writeMetrics;
+    }
+
+    // returns the files that couldn't be assembled without errors
+    public List<String> assembleAll() throws InterruptedException {
+        List<Callable<Assembler>> jobs = new ArrayList<>();
+        for (String sourceFile : sourceFiles) {
+            jobs.add(() -> {
+                Assembler assembler = new Assembler(sourceFile, outputDirectory);
+                assembler.setVerbose(false);
+                assembler.setLimits(limits);
+                assembler.setCache(cache);
+                assembler.setBinaryObject(binaryObject);
+                if (stats == null) {
+                    // a file that can't be read is reported as failed, not thrown
+                    return assembler.assemble() ? assembler : null;
+                }
+                Metrics metrics = new Metrics();
+                assembler.setMetrics(metrics);
+                try {
+                    return assembler.assemble() ? assembler : null;
+                } finally {
+                    stats.add(metrics);
+                    if (writeMetrics)
+                        writeMetrics(assembler);
+                }
+            });
+        }
+
+        List<String> failures = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<Assembler>> results = pool.invokeAll(jobs);
+            for (int x = 0; x < results.size(); x++) {
+                Assembler assembler = result(results.get(x));
+                if (assembler == null) {
+                    failed++;
+                    failures.add(sourceFiles.get(x));
+                } else {
+                    assembled++;
+                    totalLines += assembler.getSourceLines();
+                    totalBytes += assembler.getProgramLength();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        elapsedNanos = System.nanoTime() - start;
+        return failures;
+    }
+
+    private static void writeMetrics(Assembler assembler) throws IOException {
+        String listing = assembler.getListingFile();
+        if (listing.endsWith(".lst"))
+            listing = listing.substring(0, listing.length() - 4);
+        RecordWriter json = new RecordWriter(listing + ".json");
+        try {
+            json.write(assembler.getMetrics().toJson());
+        } finally {
+            json.close();
+        }
+    }
+
+    private Assembler result(Future<Assembler> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    public int getAssembled() {
+        return assembled;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public double filesPerSecond() {
+        return (sourceFiles.size() * 1e9) / Math.max(1, elapsedNanos);
+    }
+
+    public double linesPerSecond() {
+        return (totalLines * 1e9) / Math.max(1, elapsedNanos);
+    }
+
+    public String summary() {
+        return String.format("ASSEMBLED %d FILE(S), %d FAILED, %d THREAD(S)%n" +
+                        "%d LINES, %d BYTES OF PROGRAM IN %.3f s%n" +
+                        "%.1f FILES/s, %.0f LINES/s",
+                assembled, failed, threads, totalLines, totalBytes, elapsedNanos / 1e9,
+                filesPerSecond(), linesPerSecond());
+    }
+
+    // adds the file, or every .asm file in it if it is a directory
+    private static void addSources(File file, List<String> sources) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            sources.add(file.getPath());
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory() || child.getName().toLowerCase().endsWith(".asm"))
+                addSources(child, sources);
+        }
+    }
+
+    // usage: BatchAssembler [-o outputDirectory] [-t threads] [-l] [-c cacheDirectory] [-b] [-j] file|directory...
+    // -l assembles with Limits.LARGE, -c skips files that didn't change since they were last cached,
+    // -b also writes <name>.sob binary object files, -j writes the metrics of every file to <name>.json and shows their totals over JMX
+    public static void main(String[] args) throws InterruptedException, IOException {
+        String outputDirectory = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Limits limits = Limits.CLASSIC;
+        AssemblyCache cache = null;
+        boolean writeMetrics = false;
+        boolean binaryObject = false;
+        List<String> sources = new ArrayList<>();
+        for (int x = 0; x < args.length; x++) {
+            if (args[x].equals("-o") && x + 1 < args.length) {
+                outputDirectory = args[++x];
+            } else if (args[x].equals("-t") && x + 1 < args.length) {
+                threads = Integer.parseInt(args[++x]);
+            } else if (args[x].equals("-c") && x + 1 < args.length) {
+                cache = new AssemblyCache(new File(args[++x]));
+            } else if (args[x].equals("-l")) {
+                limits = Limits.LARGE;
+            } else if (args[x].equals("-b")) {
+                binaryObject = true;
+            } else if (args[x].equals("-j")) {
+                writeMetrics = true;
+            } else {
+                addSources(new File(args[x]), sources);
+            }
+        }
+        if (outputDirectory != null && !new File(outputDirectory).isDirectory() && !new File(outputDirectory).mkdirs())
+            throw new IOException("COULDN'T CREATE OUTPUT DIRECTORY " + outputDirectory);
+
+        BatchAssembler batch = new BatchAssembler(sources, outputDirectory, threads);
+        batch.setLimits(limits);
+        batch.setCache(cache);
+        batch.setBinaryObject(binaryObject);
+        if (writeMetrics)
+            batch.setStats(AssemblerStats.get(), true);
+        for (String failure : batch.assembleAll())
+            System.out.println("ERRORS IN " + failure);
+        System.out.println(batch.summary());
+    }
+}
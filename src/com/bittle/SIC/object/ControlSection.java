@@ -0,0 +1,135 @@
+package com.bittle.SIC.object;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// one control section of an object program, everything between an H record and its E record.
+// Same content whether it was read from the text or the binary format
+public class ControlSection {
+    private final String name;
+    private final int startingAddress;
+    private final int length;
+    private final List<Definition> definitions = new ArrayList<>();     /* D records */
+    private final List<String> references = new ArrayList<>();         /* R records */
+    private final List<Text> texts = new ArrayList<>();                 /* T records */
+    private final List<Modification> modifications = new ArrayList<>(); /* M records */
+    private int entry = NO_ENTRY;                                       /* E record address */
+
+    public static final int NO_ENTRY = -1;
+
+    public ControlSection(String name, int startingAddress, int length) {
+        this.name = name;
+        this.startingAddress = startingAddress;
+        this.length = length;
+    }
+
+    // EXTDEF symbol and its address
+    public static class Definition {
+        private final String name;
+        private final int address;
+
+        public Definition(String name, int address) {
+            this.name = name;
+            this.address = address;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+    }
+
+    // up to 255 bytes of object code loaded at address
+    public static class Text {
+        private final int address;
+        private final byte[] bytes;
+
+        public Text(int address, byte[] bytes) {
+            this.address = address;
+            this.bytes = bytes;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    // add (or subtract) symbol, the section's own address if it has none, to the halfBytes
+    // half-bytes at address. Odd lengths leave the first half-byte alone (the opcode nibble of format 4)
+    public static class Modification {
+        private final int address;
+        private final int halfBytes;
+        private final char sign;        /* '+' or '-', 0 if the record has no symbol */
+        private final String symbol;    /* null if the record has no symbol */
+
+        public Modification(int address, int halfBytes, char sign, String symbol) {
+            this.address = address;
+            this.halfBytes = halfBytes;
+            this.sign = sign;
+            this.symbol = symbol;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+
+        public int getHalfBytes() {
+            return halfBytes;
+        }
+
+        public char getSign() {
+            return sign;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStartingAddress() {
+        return startingAddress;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public List<Definition> getDefinitions() {
+        return definitions;
+    }
+
+    public List<String> getReferences() {
+        return references;
+    }
+
+    public List<Text> getTexts() {
+        return texts;
+    }
+
+    public List<Modification> getModifications() {
+        return modifications;
+    }
+
+    public boolean hasEntry() {
+        return entry != NO_ENTRY;
+    }
+
+    public int getEntry() {
+        return entry;
+    }
+
+    public void setEntry(int entry) {
+        this.entry = entry;
+    }
+}
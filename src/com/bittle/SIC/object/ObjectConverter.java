@@ -0,0 +1,54 @@
+package com.bittle.SIC.object;
+
+import java.io.*;
+import java.util.List;
+
+// converts object files between the text and the binary format, see ObjectFile
+public final class ObjectConverter {
+    private ObjectConverter() {
+    }
+
+    public static void toBinary(String textFile, String binaryFile) throws IOException {
+        List<ControlSection> sections = ObjectFile.read(new File(textFile));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(binaryFile));
+        try {
+            ObjectFile.writeBinary(sections, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void toText(String binaryFile, String textFile) throws IOException {
+        List<ControlSection> sections = ObjectFile.read(new File(binaryFile));
+        Writer out = new BufferedWriter(new FileWriter(textFile));
+        try {
+            ObjectFile.writeText(sections, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    // usage: ObjectConverter input [output]
+    // a text input is converted to binary and a binary one to text. Without output, the result goes next
+    // to the input with the other extension (.sob for binary, .obj for text)
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: ObjectConverter input [output]");
+            return;
+        }
+        String input = args[0];
+        boolean binary = ObjectFile.isBinary(new File(input));
+        String output;
+        if (args.length > 1) {
+            output = args[1];
+        } else {
+            String name = (input.lastIndexOf('.') > input.lastIndexOf(File.separatorChar))
+                    ? input.substring(0, input.lastIndexOf('.')) : input;
+            output = name + ((binary) ? ".obj" : ObjectFile.BINARY_EXTENSION);
+        }
+        if (binary)
+            toText(input, output);
+        else
+            toBinary(input, output);
+    }
+}
@@ -0,0 +1,374 @@
+package com.bittle.SIC.object;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// reads and writes object programs in either format, as a list of control sections.
+//
+// text: the H/D/R/T/M/E records the assembler writes, one per line, in hex.
+// binary: the same records without the hex, grouped in length-prefixed sections so a reader can skip
+// what it doesn't need. Numbers are big-endian, addresses 3 bytes, names a length byte and ASCII:
+//   file     "SICO" VERSION section...
+//   section  type (1) body length (4) body
+//   H        name start length                 one per control section, first
+//   D        (name address)...                 EXTDEF
+//   R        name...                           EXTREF
+//   T        (address length (1) bytes)...     text records, raw bytes
+//   M        (address halfBytes (1) sign (1) [name])...   relocation table, sign 0 = no name
+//   E        [address]                         last, empty without a first instruction
+// Converting either way is lossless for sections in H, D, R, T, M, E order, the order the assembler writes
+public final class ObjectFile {
+    public static final String BINARY_EXTENSION = ".sob";
+    private static final byte[] MAGIC = {'S', 'I', 'C', 'O'};
+    private static final int VERSION = 1;
+
+    private ObjectFile() {
+    }
+
+    // either format, told apart by the first bytes
+    public static List<ControlSection> read(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static List<ControlSection> read(InputStream in) throws IOException {
+        if (!in.markSupported())
+            in = new BufferedInputStream(in);
+        in.mark(MAGIC.length);
+        byte[] start = new byte[MAGIC.length];
+        int read = 0;
+        while (read < start.length) {
+            int n = in.read(start, read, start.length - read);
+            if (n < 0)
+                break;
+            read += n;
+        }
+        in.reset();
+        if (read == MAGIC.length && isMagic(start))
+            return readBinary(in);
+        return readText(new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII)));
+    }
+
+    public static boolean isBinary(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] start = new byte[MAGIC.length];
+            return in.read(start) == MAGIC.length && isMagic(start);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean isMagic(byte[] start) {
+        for (int x = 0; x < MAGIC.length; x++) {
+            if (start[x] != MAGIC[x])
+                return false;
+        }
+        return true;
+    }
+
+    // text format
+
+    public static List<ControlSection> readText(BufferedReader reader) throws IOException {
+        List<ControlSection> sections = new ArrayList<>();
+        ControlSection section = null;
+        String record;
+        while ((record = reader.readLine()) != null) {
+            if (record.isEmpty())
+                continue;
+            if (record.charAt(0) == 'H') {
+                check(record, 19);
+                section = new ControlSection(record.substring(1, 7).trim(), hex(record, 7, 13), hex(record, 13, 19));
+                sections.add(section);
+                continue;
+            }
+            if (section == null)
+                throw new IOException("NO HEADER RECORD BEFORE: " + record);
+            switch (record.charAt(0)) {
+                case 'D':
+                    for (int x = 1; x + 12 <= record.length(); x += 12)
+                        section.getDefinitions().add(new ControlSection.Definition(
+                                record.substring(x, x + 6).trim(), hex(record, x + 6, x + 12)));
+                    break;
+                case 'R':
+                    for (int x = 1; x < record.length(); x += 6)
+                        section.getReferences().add(record.substring(x, Math.min(x + 6, record.length())).trim());
+                    break;
+                case 'T':
+                    check(record, 9);
+                    int length = hex(record, 7, 9);
+                    check(record, 9 + length * 2);
+                    byte[] bytes = new byte[length];
+                    for (int x = 0; x < length; x++)
+                        bytes[x] = (byte) hex(record, 9 + x * 2, 11 + x * 2);
+                    section.getTexts().add(new ControlSection.Text(hex(record, 1, 7), bytes));
+                    break;
+                case 'M':
+                    check(record, 9);
+                    char sign = (record.length() > 9) ? record.charAt(9) : 0;
+                    if (sign != 0 && sign != '+' && sign != '-')
+                        throw new IOException("BAD MODIFICATION RECORD: " + record);
+                    section.getModifications().add(new ControlSection.Modification(hex(record, 1, 7),
+                            hex(record, 7, 9), sign, (sign == 0) ? null : record.substring(10).trim()));
+                    break;
+                case 'E':
+                    if (record.length() >= 7)
+                        section.setEntry(hex(record, 1, 7));
+                    section = null;
+                    break;
+                default:
+                    throw new IOException("UNKNOWN OBJECT RECORD: " + record);
+            }
+        }
+        return sections;
+    }
+
+    // one record per line, without a newline after the last E record (as the assembler writes it)
+    public static void writeText(List<ControlSection> sections, Writer writer) throws IOException {
+        StringBuilder builder = new StringBuilder(80);
+        String separator = "";
+        for (ControlSection section : sections) {
+            builder.setLength(0);
+            builder.append(separator).append('H');
+            appendName(builder, section.getName());
+            appendHex(builder, section.getStartingAddress(), 6);
+            appendHex(builder, section.getLength(), 6);
+            writer.append(builder);
+            separator = "\n";
+
+            // as many definitions or references as fit in 73 columns
+            for (int x = 0; x < section.getDefinitions().size(); x += 6) {
+                builder.setLength(0);
+                builder.append("\nD");
+                for (int y = x; y < Math.min(x + 6, section.getDefinitions().size()); y++) {
+                    appendName(builder, section.getDefinitions().get(y).getName());
+                    appendHex(builder, section.getDefinitions().get(y).getAddress(), 6);
+                }
+                writer.append(builder);
+            }
+            for (int x = 0; x < section.getReferences().size(); x += 12) {
+                builder.setLength(0);
+                builder.append("\nR");
+                for (int y = x; y < Math.min(x + 12, section.getReferences().size()); y++)
+                    appendName(builder, section.getReferences().get(y));
+                writer.append(builder);
+            }
+            for (ControlSection.Text text : section.getTexts()) {
+                builder.setLength(0);
+                builder.append("\nT");
+                appendHex(builder, text.getAddress(), 6);
+                appendHex(builder, text.getBytes().length, 2);
+                for (byte b : text.getBytes())
+                    appendHex(builder, b & 0xFF, 2);
+                writer.append(builder);
+            }
+            for (ControlSection.Modification modification : section.getModifications()) {
+                builder.setLength(0);
+                builder.append("\nM");
+                appendHex(builder, modification.getAddress(), 6);
+                appendHex(builder, modification.getHalfBytes(), 2);
+                if (modification.getSign() != 0)
+                    builder.append(modification.getSign()).append(modification.getSymbol());
+                writer.append(builder);
+            }
+            builder.setLength(0);
+            builder.append("\nE");
+            if (section.hasEntry())
+                appendHex(builder, section.getEntry(), 6);
+            writer.append(builder);
+        }
+        writer.flush();
+    }
+
+    private static void appendName(StringBuilder builder, String name) {
+        builder.append(name, 0, Math.min(6, name.length()));
+        for (int x = name.length(); x < 6; x++) builder.append(' ');
+    }
+
+    private static void appendHex(StringBuilder builder, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            builder.append(Character.toUpperCase(Character.forDigit((int) (value >>> shift) & 0xF, 16)));
+        }
+    }
+
+    private static void check(String record, int length) throws IOException {
+        if (record.length() < length)
+            throw new IOException("OBJECT RECORD TOO SHORT: " + record);
+    }
+
+    private static int hex(String record, int start, int end) throws IOException {
+        int value = 0;
+        for (int x = start; x < end; x++) {
+            int digit = Character.digit(record.charAt(x), 16);
+            if (digit < 0)
+                throw new IOException("BAD HEX IN OBJECT RECORD: " + record);
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    // binary format
+
+    public static List<ControlSection> readBinary(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!isMagic(magic))
+            throw new IOException("NOT A BINARY OBJECT FILE");
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("UNSUPPORTED BINARY OBJECT VERSION " + version);
+
+        List<ControlSection> sections = new ArrayList<>();
+        ControlSection section = null;
+        int type;
+        while ((type = in.read()) >= 0) {
+            int length = in.readInt();
+            if (length < 0)
+                throw new IOException("BAD SECTION LENGTH " + length);
+            byte[] body = new byte[length];
+            in.readFully(body);
+            Body data = new Body(body);
+            if (type == 'H') {
+                section = new ControlSection(data.name(), data.address(), data.address());
+                sections.add(section);
+            } else if (section == null) {
+                throw new IOException("NO HEADER SECTION BEFORE SECTION " + (char) type);
+            } else if (type == 'D') {
+                while (data.hasMore())
+                    section.getDefinitions().add(new ControlSection.Definition(data.name(), data.address()));
+            } else if (type == 'R') {
+                while (data.hasMore())
+                    section.getReferences().add(data.name());
+            } else if (type == 'T') {
+                while (data.hasMore()) {
+                    int address = data.address();
+                    section.getTexts().add(new ControlSection.Text(address, data.bytes(data.unsignedByte())));
+                }
+            } else if (type == 'M') {
+                while (data.hasMore()) {
+                    int address = data.address();
+                    int halfBytes = data.unsignedByte();
+                    char sign = (char) data.unsignedByte();
+                    section.getModifications().add(new ControlSection.Modification(address, halfBytes, sign,
+                            (sign == 0) ? null : data.name()));
+                }
+            } else if (type == 'E') {
+                if (data.hasMore())
+                    section.setEntry(data.address());
+                section = null;
+            } else {
+                throw new IOException("UNKNOWN SECTION TYPE " + type);
+            }
+        }
+        return sections;
+    }
+
+    public static void writeBinary(List<ControlSection> sections, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        for (ControlSection section : sections) {
+            writeName(body, section.getName());
+            writeAddress(body, section.getStartingAddress());
+            writeAddress(body, section.getLength());
+            writeSection(out, 'H', body);
+
+            for (ControlSection.Definition definition : section.getDefinitions()) {
+                writeName(body, definition.getName());
+                writeAddress(body, definition.getAddress());
+            }
+            writeSection(out, 'D', body);
+            for (String reference : section.getReferences())
+                writeName(body, reference);
+            writeSection(out, 'R', body);
+            for (ControlSection.Text text : section.getTexts()) {
+                writeAddress(body, text.getAddress());
+                body.write(text.getBytes().length);
+                body.write(text.getBytes());
+            }
+            writeSection(out, 'T', body);
+            for (ControlSection.Modification modification : section.getModifications()) {
+                writeAddress(body, modification.getAddress());
+                body.write(modification.getHalfBytes());
+                body.write(modification.getSign());
+                if (modification.getSign() != 0)
+                    writeName(body, modification.getSymbol());
+            }
+            writeSection(out, 'M', body);
+
+            if (section.hasEntry())
+                writeAddress(body, section.getEntry());
+            writeSection(out, 'E', body);
+        }
+        out.flush();
+    }
+
+    // empty D, R, T and M sections are left out
+    private static void writeSection(DataOutputStream out, char type, ByteArrayOutputStream body) throws IOException {
+        if (body.size() == 0 && type != 'H' && type != 'E')
+            return;
+        out.writeByte(type);
+        out.writeInt(body.size());
+        body.writeTo(out);
+        body.reset();
+    }
+
+    private static void writeAddress(ByteArrayOutputStream body, int address) {
+        body.write(address >>> 16);
+        body.write(address >>> 8);
+        body.write(address);
+    }
+
+    private static void writeName(ByteArrayOutputStream body, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > 255)
+            throw new IOException("NAME TOO LONG FOR BINARY OBJECT: " + name);
+        body.write(bytes.length);
+        body.write(bytes);
+    }
+
+    // reads the fields of one section body, any read past its end is an error
+    private static class Body {
+        private final byte[] body;
+        private int position = 0;
+
+        Body(byte[] body) {
+            this.body = body;
+        }
+
+        boolean hasMore() {
+            return position < body.length;
+        }
+
+        int unsignedByte() throws IOException {
+            if (position >= body.length)
+                throw new IOException("SECTION ENDS TOO SOON");
+            return body[position++] & 0xFF;
+        }
+
+        int address() throws IOException {
+            return (unsignedByte() << 16) | (unsignedByte() << 8) | unsignedByte();
+        }
+
+        byte[] bytes(int length) throws IOException {
+            if (position + length > body.length)
+                throw new IOException("SECTION ENDS TOO SOON");
+            byte[] bytes = new byte[length];
+            System.arraycopy(body, position, bytes, 0, length);
+            position += length;
+            return bytes;
+        }
+
+        String name() throws IOException {
+            return new String(bytes(unsignedByte()), StandardCharsets.US_ASCII);
+        }
+    }
+}
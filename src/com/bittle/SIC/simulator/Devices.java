@@ -0,0 +1,103 @@
+package com.bittle.SIC.simulator;
+
+import java.io.*;
+
+// the 256 devices TD/RD/WD talk to. Device XX is the file XX.dev in the device directory unless it is
+// mapped to another file or stream; files are opened on first use, input that doesn't exist reads as 0s
+public class Devices implements Closeable {
+    private final File directory;
+    private final File[] files = new File[256];
+    private final InputStream[] inputs = new InputStream[256];
+    private final OutputStream[] outputs = new OutputStream[256];
+    private final boolean[] failed = new boolean[256];
+    // the streams opened here from file(device), the others belong to the caller
+    private final boolean[] openedInput = new boolean[256];
+    private final boolean[] openedOutput = new boolean[256];
+
+    public Devices(File directory) {
+        this.directory = directory;
+    }
+
+    public void map(int device, File file) {
+        files[device & 0xFF] = file;
+    }
+
+    // for pipes, e.g. System.in
+    public void setInput(int device, InputStream in) {
+        inputs[device & 0xFF] = in;
+        openedInput[device & 0xFF] = false;
+    }
+
+    public void setOutput(int device, OutputStream out) {
+        outputs[device & 0xFF] = out;
+        openedOutput[device & 0xFF] = false;
+    }
+
+    private File file(int device) {
+        if (files[device] != null)
+            return files[device];
+        String name = Integer.toHexString(device).toUpperCase();
+        return new File(directory, ((name.length() < 2) ? "0" : "") + name + ".dev");
+    }
+
+    // TD: a device is ready until it fails
+    public boolean test(int device) {
+        return !failed[device & 0xFF];
+    }
+
+    // RD: next byte, 0 once the input ends
+    public int read(int device) {
+        device &= 0xFF;
+        try {
+            if (inputs[device] == null) {
+                File file = file(device);
+                if (!file.isFile())
+                    return 0;
+                inputs[device] = new BufferedInputStream(new FileInputStream(file));
+                openedInput[device] = true;
+            }
+            int value = inputs[device].read();
+            return (value < 0) ? 0 : value;
+        } catch (IOException e) {
+            failed[device] = true;
+            return 0;
+        }
+    }
+
+    // WD
+    public void write(int device, int value) {
+        device &= 0xFF;
+        try {
+            if (outputs[device] == null) {
+                outputs[device] = new BufferedOutputStream(new FileOutputStream(file(device)));
+                openedOutput[device] = true;
+            }
+            outputs[device].write(value);
+        } catch (IOException e) {
+            failed[device] = true;
+        }
+    }
+
+    public void flush() throws IOException {
+        for (OutputStream out : outputs) {
+            if (out != null)
+                out.flush();
+        }
+    }
+
+    // closes the files opened here, streams handed in are only flushed
+    @Override
+    public void close() throws IOException {
+        flush();
+        for (int x = 0; x < 256; x++) {
+            if (openedInput[x])
+                inputs[x].close();
+            if (openedOutput[x])
+                outputs[x].close();
+            inputs[x] = null;
+            outputs[x] = null;
+            openedInput[x] = false;
+            openedOutput[x] = false;
+        }
+    }
+}
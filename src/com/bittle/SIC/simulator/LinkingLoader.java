@@ -0,0 +1,224 @@
+package com.bittle.SIC.simulator;
+
+import com.bittle.SIC.object.ControlSection;
+import com.bittle.SIC.object.ObjectFile;
+import com.bittle.SIC.utils.SymbolTable;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// linking loader: puts control sections, from any number of object files, in memory one after the other
+// from PROGADDR and links them through ESTAB, the external symbol table (a hashed SymbolTable).
+// Every record is looked at once: an M record whose symbol isn't in ESTAB yet waits until the H or D record
+// that defines it, adding to a field gives the same result in any order. A section that doesn't start
+// at 0 is absolute and goes at its own address
+public class LinkingLoader {
+    private final Machine machine;
+    private final int programAddress;               /* PROGADDR */
+    private int sectionAddress;                     /* CSADDR of the next relocatable section */
+    private int start = -1;                         /* lowest address loaded, -1 before the first section */
+    private int end = 0;                            /* highest address loaded + 1 */
+    private int entry = -1;                         /* EXECADDR, -1 until an E record gives one */
+    private String programName = "";
+
+    private final SymbolTable estab = new SymbolTable(1024);
+    // symbol -> M records waiting for it: address, half-bytes, +1 or -1
+    private final Map<String, List<int[]>> unresolved = new HashMap<>();
+    private final List<int[]> texts = new ArrayList<>();        /* address and length of every T record */
+    private final StringBuilder loadMap = new StringBuilder();
+
+    public LinkingLoader(Machine machine, int programAddress) {
+        this.machine = machine;
+        this.programAddress = programAddress;
+        this.sectionAddress = programAddress;
+    }
+
+    public void load(String objectFile) throws IOException {
+        load(ObjectFile.read(new File(objectFile)));
+    }
+
+    public void load(List<ControlSection> sections) throws IOException {
+        for (ControlSection section : sections)
+            load(section);
+    }
+
+    public void load(ControlSection section) throws IOException {
+        boolean absolute = section.getStartingAddress() != 0;
+        int address = (absolute) ? section.getStartingAddress() : sectionAddress;
+        int relocation = address - section.getStartingAddress();
+        if (address + section.getLength() > Machine.MEMORY_SIZE)
+            throw new IOException("CONTROL SECTION " + section.getName() + " DOESN'T FIT IN MEMORY");
+        if (programName.isEmpty())
+            programName = section.getName();
+
+        define(section.getName(), address, section.getName(), section.getLength());
+        for (ControlSection.Definition definition : section.getDefinitions())
+            define(definition.getName(), definition.getAddress() + relocation, null, 0);
+
+        for (ControlSection.Text text : section.getTexts()) {
+            int to = text.getAddress() + relocation;
+            byte[] bytes = text.getBytes();
+            if (to < 0 || to + bytes.length > Machine.MEMORY_SIZE)
+                throw new IOException("TEXT RECORD OUTSIDE MEMORY IN " + section.getName());
+            for (int x = 0; x < bytes.length; x++)
+                machine.setByte(to + x, bytes[x] & 0xFF);
+            texts.add(new int[]{to, bytes.length});
+        }
+
+        for (ControlSection.Modification modification : section.getModifications()) {
+            int at = modification.getAddress() + relocation;
+            int sign = (modification.getSign() == '-') ? -1 : 1;
+            if (at < 0 || at + (modification.getHalfBytes() + 1) / 2 > Machine.MEMORY_SIZE)
+                throw new IOException("MODIFICATION RECORD OUTSIDE MEMORY IN " + section.getName());
+            if (modification.getSymbol() == null) {
+                modify(at, modification.getHalfBytes(), sign * relocation);
+                continue;
+            }
+            int value = estab.get(modification.getSymbol());
+            if (value != SymbolTable.NOT_FOUND) {
+                modify(at, modification.getHalfBytes(), sign * value);
+            } else {
+                List<int[]> waiting = unresolved.get(modification.getSymbol());
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                    unresolved.put(modification.getSymbol(), waiting);
+                }
+                waiting.add(new int[]{at, modification.getHalfBytes(), sign});
+            }
+        }
+
+        if (section.hasEntry() && entry < 0)
+            entry = section.getEntry() + relocation;
+        if (!absolute)
+            sectionAddress += section.getLength();
+        start = (start < 0) ? address : Math.min(start, address);
+        end = Math.max(end, address + section.getLength());
+    }
+
+    // adds name to ESTAB and fills in the M records that were waiting for it
+    private void define(String name, int address, String section, int length) throws IOException {
+        if (!estab.put(name, address))
+            throw new IOException("DUPLICATE EXTERNAL SYMBOL " + name);
+        if (section != null)
+            loadMap.append(String.format("%-8s%-8s%06X  %06X%n", section, "", address, length));
+        else
+            loadMap.append(String.format("%-8s%-8s%06X%n", "", name, address));
+        List<int[]> waiting = unresolved.remove(name);
+        if (waiting != null) {
+            for (int[] modification : waiting)
+                modify(modification[0], modification[1], modification[2] * address);
+        }
+    }
+
+    // adds value to the last halfBytes half-bytes of the bytes at address, what doesn't fit is dropped
+    private void modify(int address, int halfBytes, int value) {
+        byte[] memory = machine.getMemory();
+        int bytes = (halfBytes + 1) / 2;
+        long field = 0;
+        for (int x = 0; x < bytes; x++)
+            field = (field << 8) | (memory[address + x] & 0xFF);
+        long mask = (1L << (halfBytes * 4)) - 1;
+        field = (field & ~mask) | ((field + value) & mask);
+        for (int x = bytes - 1; x >= 0; x--) {
+            machine.setByte(address + x, (int) field & 0xFF);
+            field >>>= 8;
+        }
+    }
+
+    // after the last section: every external symbol has to be defined by now. Returns EXECADDR
+    public int finish() throws IOException {
+        if (!unresolved.isEmpty())
+            throw new IOException("UNDEFINED EXTERNAL SYMBOL(S): " + String.join(", ", unresolved.keySet()));
+        return (entry < 0) ? getStartingAddress() : entry;
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    // lowest address loaded, usually PROGADDR
+    public int getStartingAddress() {
+        return (start < 0) ? programAddress : start;
+    }
+
+    public int getLength() {
+        return (start < 0) ? 0 : end - start;
+    }
+
+    // address of an external symbol (or section), SymbolTable.NOT_FOUND if there is none
+    public int address(String name) {
+        return estab.get(name);
+    }
+
+    public String getLoadMap() {
+        return loadMap.toString();
+    }
+
+    // the linked program as one absolute control section, T records of up to 30 bytes where text was loaded
+    public ControlSection linkedProgram() {
+        ControlSection linked = new ControlSection(programName, getStartingAddress(), getLength());
+        byte[] memory = machine.getMemory();
+        for (int[] text : texts) {
+            for (int x = 0; x < text[1]; x += 30) {
+                int length = Math.min(30, text[1] - x);
+                byte[] bytes = new byte[length];
+                System.arraycopy(memory, text[0] + x, bytes, 0, length);
+                linked.getTexts().add(new ControlSection.Text(text[0] + x, bytes));
+            }
+        }
+        linked.setEntry((entry < 0) ? getStartingAddress() : entry);
+        return linked;
+    }
+
+    // usage: LinkingLoader [-a address] [-o linked.obj|linked.sob] object...
+    // links the object files from address (hex, 0 if not given), prints the load map and writes the linked
+    // program as an absolute object file, binary if its name ends in .sob
+    public static void main(String[] args) throws IOException {
+        int address = 0;
+        String output = null;
+        List<String> objectFiles = new ArrayList<>();
+        for (int x = 0; x < args.length; x++) {
+            if (args[x].equals("-a") && x + 1 < args.length) {
+                address = Integer.parseInt(args[++x], 16);
+            } else if (args[x].equals("-o") && x + 1 < args.length) {
+                output = args[++x];
+            } else {
+                objectFiles.add(args[x]);
+            }
+        }
+        if (objectFiles.isEmpty()) {
+            System.out.println("usage: LinkingLoader [-a address] [-o linked.obj|linked.sob] object...");
+            return;
+        }
+
+        LinkingLoader linker = new LinkingLoader(new Machine(new Devices(new File("."))), address);
+        for (String objectFile : objectFiles)
+            linker.load(objectFile);
+        int entry = linker.finish();
+        System.out.print(linker.getLoadMap());
+        System.out.printf("PROGRAM LENGTH %06X, EXECUTION STARTS AT %06X%n", linker.getLength(), entry);
+
+        if (output != null) {
+            List<ControlSection> linked = new ArrayList<>();
+            linked.add(linker.linkedProgram());
+            if (output.endsWith(ObjectFile.BINARY_EXTENSION)) {
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+                try {
+                    ObjectFile.writeBinary(linked, out);
+                } finally {
+                    out.close();
+                }
+            } else {
+                Writer out = new BufferedWriter(new FileWriter(output));
+                try {
+                    ObjectFile.writeText(linked, out);
+                } finally {
+                    out.close();
+                }
+            }
+        }
+    }
+}
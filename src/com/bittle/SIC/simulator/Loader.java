@@ -0,0 +1,127 @@
+package com.bittle.SIC.simulator;
+
+import com.bittle.SIC.object.ControlSection;
+import com.bittle.SIC.object.ObjectFile;
+
+import java.io.*;
+import java.util.List;
+
+// absolute loader: puts the T records of an object program in memory and returns where to start,
+// the E record address (or the H record start address if E has none). Binary object files are
+// loaded straight from their bytes, without any hex to parse. A relocatable program (M, D or R records,
+// more than one control section) is the LinkingLoader's, see needsLinking()
+public class Loader {
+    private String programName = "";
+    private int startingAddress = 0;
+    private int programLength = 0;
+
+    public int load(Machine machine, String objectFile) throws IOException {
+        if (ObjectFile.isBinary(new File(objectFile)))
+            return load(machine, ObjectFile.read(new File(objectFile)));
+        BufferedReader reader = new BufferedReader(new FileReader(objectFile));
+        try {
+            return load(machine, reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public int load(Machine machine, BufferedReader reader) throws IOException {
+        int first = -1;
+        String record;
+        while ((record = reader.readLine()) != null) {
+            if (record.isEmpty())
+                continue;
+            switch (record.charAt(0)) {
+                case 'H':
+                    check(record, 19);
+                    programName = record.substring(1, 7).trim();
+                    startingAddress = hex(record, 7, 13);
+                    programLength = hex(record, 13, 19);
+                    first = startingAddress;
+                    break;
+                case 'T':
+                    check(record, 9);
+                    int address = hex(record, 1, 7);
+                    int length = hex(record, 7, 9);
+                    check(record, 9 + length * 2);
+                    if (address + length > Machine.MEMORY_SIZE)
+                        throw new IOException("TEXT RECORD OUTSIDE MEMORY: " + record);
+                    for (int x = 0; x < length; x++)
+                        machine.setByte(address + x, hex(record, 9 + x * 2, 11 + x * 2));
+                    break;
+                case 'E':
+                    if (record.length() >= 7)
+                        first = hex(record, 1, 7);
+                    return first;
+                case 'D':
+                case 'R':
+                case 'M':
+                    throw new IOException("RELOCATABLE PROGRAM, NEEDS THE LINKING LOADER: " + record);
+                default:
+                    throw new IOException("UNKNOWN OBJECT RECORD: " + record);
+            }
+        }
+        if (first < 0)
+            throw new IOException("NO HEADER RECORD");
+        return first;
+    }
+
+    // the first control section only, like a text object file
+    public int load(Machine machine, List<ControlSection> sections) throws IOException {
+        if (sections.isEmpty())
+            throw new IOException("NO HEADER RECORD");
+        if (needsLinking(sections))
+            throw new IOException("RELOCATABLE PROGRAM, NEEDS THE LINKING LOADER: " + sections.get(0).getName());
+        ControlSection section = sections.get(0);
+        programName = section.getName();
+        startingAddress = section.getStartingAddress();
+        programLength = section.getLength();
+        for (ControlSection.Text text : section.getTexts()) {
+            byte[] bytes = text.getBytes();
+            if (text.getAddress() + bytes.length > Machine.MEMORY_SIZE)
+                throw new IOException("TEXT RECORD OUTSIDE MEMORY AT " + Integer.toHexString(text.getAddress()));
+            for (int x = 0; x < bytes.length; x++)
+                machine.setByte(text.getAddress() + x, bytes[x] & 0xFF);
+        }
+        return (section.hasEntry()) ? section.getEntry() : startingAddress;
+    }
+
+    // true if loading sections as they are would leave addresses or external symbols unfilled
+    public static boolean needsLinking(List<ControlSection> sections) {
+        for (ControlSection section : sections) {
+            if (!section.getModifications().isEmpty() || !section.getDefinitions().isEmpty()
+                    || !section.getReferences().isEmpty())
+                return true;
+        }
+        return sections.size() > 1;
+    }
+
+    private static void check(String record, int length) throws IOException {
+        if (record.length() < length)
+            throw new IOException("OBJECT RECORD TOO SHORT: " + record);
+    }
+
+    private static int hex(String record, int start, int end) throws IOException {
+        int value = 0;
+        for (int x = start; x < end; x++) {
+            int digit = Character.digit(record.charAt(x), 16);
+            if (digit < 0)
+                throw new IOException("BAD HEX IN OBJECT RECORD: " + record);
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    public int getStartingAddress() {
+        return startingAddress;
+    }
+
+    public int getProgramLength() {
+        return programLength;
+    }
+}
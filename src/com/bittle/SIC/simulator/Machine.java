@@ -0,0 +1,494 @@
+package com.bittle.SIC.simulator;
+
+import com.bittle.SIC.utils.Opcode;
+import com.bittle.SIC.utils.OpcodeTable;
+
+// SIC/XE CPU: 1MB of memory, the registers and the OPTAB instructions.
+// Opcodes are decoded through tables built once from OPTAB, and running allocates nothing.
+// Each instruction is decoded only the first time it runs and then executed from the decode cache,
+// a write to memory drops the cached instructions it overlaps so self-modifying code still works
+public class Machine {
+    public static final int MEMORY_SIZE = 1 << 20;
+    private static final int ADDRESS_MASK = MEMORY_SIZE - 1;
+    private static final int WORD_MASK = 0xFFFFFF;
+    // L holds this when the program starts, so the final RSUB (or J @RETADR) ends it
+    public static final int RETURN_ADDRESS = 0xFFFFFF;
+
+    // register numbers, the same as in format 2 instructions
+    public static final int A = 0, X = 1, L = 2, B = 3, S = 4, T = 5, F = 6, PC = 8, SW = 9;
+
+    // condition code, in SW
+    public static final int CC_MASK = 0xC0, LT = 0x40, EQ = 0x00, GT = 0x80;
+
+    // why run() stopped
+    public static final int RUNNING = 0, RETURNED = 1, INSTRUCTION_LIMIT = 2, INVALID_OPCODE = 3,
+            DIVIDE_BY_ZERO = 4, UNSUPPORTED = 5, OUT_OF_MEMORY = 6;
+    private static final String[] STATUS = {"RUNNING", "RETURNED TO CALLER", "INSTRUCTION LIMIT REACHED",
+            "INVALID OPCODE", "DIVISION BY ZERO", "UNSUPPORTED INSTRUCTION", "PC OUTSIDE MEMORY"};
+
+    // operations, numbered opcode >> 2 so the dispatch switch is a table
+    private static final int LDA = 0x00 >> 2, LDX = 0x04 >> 2, LDL = 0x08 >> 2, STA = 0x0C >> 2, STX = 0x10 >> 2,
+            STL = 0x14 >> 2, ADD = 0x18 >> 2, SUB = 0x1C >> 2, MUL = 0x20 >> 2, DIV = 0x24 >> 2, COMP = 0x28 >> 2,
+            TIX = 0x2C >> 2, JEQ = 0x30 >> 2, JGT = 0x34 >> 2, JLT = 0x38 >> 2, J = 0x3C >> 2, AND = 0x40 >> 2,
+            OR = 0x44 >> 2, JSUB = 0x48 >> 2, RSUB = 0x4C >> 2, LDCH = 0x50 >> 2, STCH = 0x54 >> 2,
+            ADDF = 0x58 >> 2, SUBF = 0x5C >> 2, MULF = 0x60 >> 2, DIVF = 0x64 >> 2, LDB = 0x68 >> 2,
+            LDS = 0x6C >> 2, LDF = 0x70 >> 2, LDT = 0x74 >> 2, STB = 0x78 >> 2, STS = 0x7C >> 2, STF = 0x80 >> 2,
+            STT = 0x84 >> 2, COMPF = 0x88 >> 2, ADDR = 0x90 >> 2, SUBR = 0x94 >> 2, MULR = 0x98 >> 2,
+            DIVR = 0x9C >> 2, COMPR = 0xA0 >> 2, SHIFTL = 0xA4 >> 2, SHIFTR = 0xA8 >> 2, RMO = 0xAC >> 2,
+            SVC = 0xB0 >> 2, CLEAR = 0xB4 >> 2, TIXR = 0xB8 >> 2, FLOAT = 0xC0 >> 2, FIX = 0xC4 >> 2,
+            NORM = 0xC8 >> 2, RD = 0xD8 >> 2, WD = 0xDC >> 2, TD = 0xE0 >> 2, STSW = 0xE8 >> 2;
+
+    // instruction format of every operation, 0 if it isn't in OPTAB
+    static final byte[] FORMAT = new byte[64];
+    // what a format 3/4 operation reads from its target address:
+    // a word, a byte, nothing (the address itself, for stores and jumps) or something else (floats, RSUB)
+    private static final byte WORD_OPERAND = 0, BYTE_OPERAND = 1, ADDRESS_OPERAND = 2, OTHER_OPERAND = 3;
+    static final byte[] OPERAND = new byte[64];
+    static final boolean[] JUMP = new boolean[64];
+
+    static {
+        for (Opcode opcode : OpcodeTable.instructions())
+            FORMAT[opcode.getHexCode() >> 2] = (byte) opcode.getFormat();
+        for (int op : new int[]{STA, STX, STL, STCH, STB, STS, STF, STT, STSW, J, JEQ, JGT, JLT, JSUB})
+            OPERAND[op] = ADDRESS_OPERAND;
+        for (int op : new int[]{LDCH, RD, WD, TD})
+            OPERAND[op] = BYTE_OPERAND;
+        for (int op : new int[]{LDF, ADDF, SUBF, MULF, DIVF, COMPF, RSUB})
+            OPERAND[op] = OTHER_OPERAND;
+        for (int op : new int[]{J, JEQ, JGT, JLT, JSUB})
+            JUMP[op] = true;
+    }
+
+    // a decoded instruction, packed in a long:
+    //   bits 0-23   target address (PC relative ones already added up), or r1 r2 for format 2
+    //   bits 24-29  operation, 30-31 n i, 32-34 length (0 = invalid opcode), 35-36 format
+    //   bit 37      x: add X, bit 38 b: add B, bit 39 set on every decoded entry so 0 is "not decoded"
+    private static final long INDEXED = 1L << 37, BASE_RELATIVE = 1L << 38, DECODED = 1L << 39;
+
+    // a little past the end so a word or an instruction at the last address can still be read
+    private final byte[] memory = new byte[MEMORY_SIZE + 8];
+    private final long[] decoded = new long[MEMORY_SIZE + 8];
+    private long decodes = 0;
+    private final int[] register = new int[16];     /* format 2 can name up to 15 */
+    private double f = 0;
+    private final Devices devices;
+
+    private int status = RUNNING;
+    private long executed = 0;
+
+    public Machine(Devices devices) {
+        this.devices = devices;
+        reset(0);
+    }
+
+    // registers to 0, L to RETURN_ADDRESS and PC to start. Memory is left alone
+    public void reset(int start) {
+        for (int x = 0; x < register.length; x++) register[x] = 0;
+        f = 0;
+        register[L] = RETURN_ADDRESS;
+        register[PC] = start;
+        status = RUNNING;
+        executed = 0;
+    }
+
+    // runs until the program returns, fails or executes limit instructions. Returns the status
+    public int run(long limit) {
+        long end = (limit > Long.MAX_VALUE - executed) ? Long.MAX_VALUE : executed + limit;
+        while (status == RUNNING) {
+            if (executed == end) {
+                status = INSTRUCTION_LIMIT;
+                break;
+            }
+            step();
+        }
+        return status;
+    }
+
+    // executes one instruction, false once the machine stopped
+    public boolean step() {
+        int pc = register[PC];
+        if (pc >= MEMORY_SIZE) {
+            status = (pc == RETURN_ADDRESS) ? RETURNED : OUT_OF_MEMORY;
+            return false;
+        }
+        long instruction = decoded[pc];
+        if (instruction == 0)
+            instruction = decoded[pc] = decode(pc);
+
+        int length = (int) (instruction >>> 32) & 7;
+        if (length == 0) {
+            status = INVALID_OPCODE;
+            return false;
+        }
+        register[PC] = pc + length;
+        int op = (int) (instruction >>> 24) & 0x3F;
+        int target = (int) instruction & 0xFFFFFF;
+        switch ((int) (instruction >>> 35) & 3) {
+            case 1:
+                formatOne(op);
+                break;
+            case 2:
+                formatTwo(op, target >> 4, target & 0xF);
+                break;
+            default:
+                if ((instruction & BASE_RELATIVE) != 0)
+                    target += register[B];
+                if ((instruction & INDEXED) != 0)
+                    target += register[X];
+                execute(op, (int) (instruction >>> 30) & 3, target & ADDRESS_MASK);
+        }
+        executed++;
+        return status == RUNNING;
+    }
+
+    // the instruction at pc, packed as described at DECODED
+    private long decode(int pc) {
+        decodes++;
+        int code = memory[pc] & 0xFF;
+        int op = code >> 2;
+        int format = FORMAT[op];
+        long instruction = DECODED | ((long) op << 24) | ((long) format << 35);
+        if (format == 1)
+            return instruction | (1L << 32);
+        if (format == 2)
+            return instruction | (2L << 32) | (memory[pc + 1] & 0xFF);
+        if (format != 3)
+            return DECODED;     /* length 0: invalid */
+
+        int ni = code & 3;
+        int b1 = memory[pc + 1] & 0xFF;
+        int b2 = memory[pc + 2] & 0xFF;
+        int target;
+        int length = 3;
+        if (ni == 0) {
+            // SIC: x bit and a 15 bit address, used as a simple address
+            target = ((b1 & 0x7F) << 8) | b2;
+            ni = 3;
+        } else if ((b1 & 0x10) != 0) {
+            // e: format 4, 20 bit address
+            target = ((b1 & 0xF) << 16) | (b2 << 8) | (memory[pc + 3] & 0xFF);
+            length = 4;
+        } else {
+            target = ((b1 & 0xF) << 8) | b2;
+            if ((b1 & 0x20) != 0)
+                target = (pc + 3 + ((target << 20) >> 20)) & ADDRESS_MASK;    /* p, signed displacement */
+            else if ((b1 & 0x40) != 0)
+                instruction |= BASE_RELATIVE;                                 /* b */
+        }
+        if ((b1 & 0x80) != 0)
+            instruction |= INDEXED;
+        return instruction | ((long) ni << 30) | ((long) length << 32) | target;
+    }
+
+    private void formatOne(int op) {
+        if (op == FIX) {
+            register[A] = (int) f & WORD_MASK;
+        } else if (op == FLOAT) {
+            f = signed(register[A]);
+        } else if (op != NORM) {
+            // NORM: F is always kept normalized. SIO/TIO/HIO need an operating system
+            status = UNSUPPORTED;
+        }
+    }
+
+    private void formatTwo(int op, int r1, int r2) {
+        if (op == CLEAR) {
+            setRegister(r1, 0);
+        } else if (op == TIXR) {
+            register[X] = (register[X] + 1) & WORD_MASK;
+            compare(signed(register[X]), signed(getRegister(r1)));
+        } else if (op == COMPR) {
+            compare(signed(getRegister(r1)), signed(getRegister(r2)));
+        } else if (op == ADDR) {
+            setRegister(r2, getRegister(r2) + getRegister(r1));
+        } else if (op == SUBR) {
+            setRegister(r2, getRegister(r2) - getRegister(r1));
+        } else if (op == MULR) {
+            setRegister(r2, signed(getRegister(r2)) * signed(getRegister(r1)));
+        } else if (op == DIVR) {
+            int divisor = signed(getRegister(r1));
+            if (divisor == 0)
+                status = DIVIDE_BY_ZERO;
+            else
+                setRegister(r2, signed(getRegister(r2)) / divisor);
+        } else if (op == RMO) {
+            setRegister(r2, getRegister(r1));
+        } else if (op == SHIFTL) {
+            // circular, n is stored as n - 1
+            int n = r2 + 1, value = getRegister(r1);
+            setRegister(r1, (value << n) | (value >>> (24 - n)));
+        } else if (op == SHIFTR) {
+            // the sign bit fills in from the left
+            setRegister(r1, signed(getRegister(r1)) >> (r2 + 1));
+        } else {
+            // SVC
+            status = UNSUPPORTED;
+        }
+    }
+
+    // target is the address the instruction names, ni says what to do with it
+    void execute(int op, int ni, int target) {
+        if (ni == 2) {
+            // indirect. A jump keeps all 24 bits so J @RETADR can reach RETURN_ADDRESS
+            target = word(target);
+            if (!JUMP[op])
+                target &= ADDRESS_MASK;
+        }
+        int value = 0;
+        int operand = OPERAND[op];
+        if (ni == 1 && operand != ADDRESS_OPERAND)
+            value = target;                                 /* immediate */
+        else if (operand == WORD_OPERAND)
+            value = word(target);
+        else if (operand == BYTE_OPERAND)
+            value = memory[target] & 0xFF;
+
+        switch (op) {
+            case LDA:
+                register[A] = value;
+                break;
+            case LDX:
+                register[X] = value;
+                break;
+            case LDL:
+                register[L] = value;
+                break;
+            case LDB:
+                register[B] = value;
+                break;
+            case LDS:
+                register[S] = value;
+                break;
+            case LDT:
+                register[T] = value;
+                break;
+            case LDCH:
+                register[A] = (register[A] & 0xFFFF00) | (value & 0xFF);
+                break;
+            case STA:
+                setWord(target, register[A]);
+                break;
+            case STX:
+                setWord(target, register[X]);
+                break;
+            case STL:
+                setWord(target, register[L]);
+                break;
+            case STB:
+                setWord(target, register[B]);
+                break;
+            case STS:
+                setWord(target, register[S]);
+                break;
+            case STT:
+                setWord(target, register[T]);
+                break;
+            case STSW:
+                setWord(target, register[SW]);
+                break;
+            case STCH:
+                setByte(target, register[A]);
+                break;
+            case ADD:
+                register[A] = (register[A] + value) & WORD_MASK;
+                break;
+            case SUB:
+                register[A] = (register[A] - value) & WORD_MASK;
+                break;
+            case MUL:
+                register[A] = (signed(register[A]) * signed(value)) & WORD_MASK;
+                break;
+            case DIV:
+                if (signed(value) == 0)
+                    status = DIVIDE_BY_ZERO;
+                else
+                    register[A] = (signed(register[A]) / signed(value)) & WORD_MASK;
+                break;
+            case AND:
+                register[A] &= value;
+                break;
+            case OR:
+                register[A] = (register[A] | value) & WORD_MASK;
+                break;
+            case COMP:
+                compare(signed(register[A]), signed(value));
+                break;
+            case TIX:
+                register[X] = (register[X] + 1) & WORD_MASK;
+                compare(signed(register[X]), signed(value));
+                break;
+            case J:
+                register[PC] = target;
+                break;
+            case JEQ:
+                if ((register[SW] & CC_MASK) == EQ)
+                    register[PC] = target;
+                break;
+            case JGT:
+                if ((register[SW] & CC_MASK) == GT)
+                    register[PC] = target;
+                break;
+            case JLT:
+                if ((register[SW] & CC_MASK) == LT)
+                    register[PC] = target;
+                break;
+            case JSUB:
+                register[L] = register[PC];
+                register[PC] = target;
+                break;
+            case RSUB:
+                register[PC] = register[L];
+                break;
+            case TD:
+                register[SW] = (register[SW] & ~CC_MASK) | ((devices.test(value)) ? LT : EQ);
+                break;
+            case RD:
+                register[A] = (register[A] & 0xFFFF00) | devices.read(value);
+                break;
+            case WD:
+                devices.write(value, register[A] & 0xFF);
+                break;
+            case LDF:
+                f = (ni == 1) ? target : getFloat(target);
+                break;
+            case STF:
+                setFloat(target, f);
+                break;
+            case ADDF:
+                f += (ni == 1) ? target : getFloat(target);
+                break;
+            case SUBF:
+                f -= (ni == 1) ? target : getFloat(target);
+                break;
+            case MULF:
+                f *= (ni == 1) ? target : getFloat(target);
+                break;
+            case DIVF:
+                double divisor = (ni == 1) ? target : getFloat(target);
+                if (divisor == 0)
+                    status = DIVIDE_BY_ZERO;
+                else
+                    f /= divisor;
+                break;
+            case COMPF:
+                double other = (ni == 1) ? target : getFloat(target);
+                register[SW] = (register[SW] & ~CC_MASK) | ((f < other) ? LT : (f > other) ? GT : EQ);
+                break;
+            default:
+                // LPS, STI, SSK need an operating system
+                status = UNSUPPORTED;
+        }
+    }
+
+    private void compare(int first, int second) {
+        register[SW] = (register[SW] & ~CC_MASK) | ((first < second) ? LT : (first > second) ? GT : EQ);
+    }
+
+    private static int signed(int word) {
+        return (word << 8) >> 8;
+    }
+
+    public int word(int address) {
+        return ((memory[address] & 0xFF) << 16) | ((memory[address + 1] & 0xFF) << 8) | (memory[address + 2] & 0xFF);
+    }
+
+    public void setWord(int address, int value) {
+        if (address < 3) {
+            setByte(address, value >> 16);
+            setByte(address + 1, value >> 8);
+            setByte(address + 2, value);
+            return;
+        }
+        memory[address] = (byte) (value >> 16);
+        memory[address + 1] = (byte) (value >> 8);
+        memory[address + 2] = (byte) value;
+        // same as setByte() three times, without clearing the same entries again
+        for (int x = address - 3; x <= address + 2; x++) decoded[x] = 0;
+    }
+
+    // every store to memory goes through here: an instruction is at most 4 bytes long,
+    // so the ones that can hold this byte start at most 3 bytes before it
+    void setByte(int address, int value) {
+        memory[address] = (byte) value;
+        decoded[address] = 0;
+        if (address >= 3) {
+            decoded[address - 1] = 0;
+            decoded[address - 2] = 0;
+            decoded[address - 3] = 0;
+        } else {
+            for (int x = 1; x <= address; x++) decoded[address - x] = 0;
+        }
+    }
+
+    // 48 bits: sign, 11 bit exponent (excess 1024), 36 bit fraction 0.1xxx
+    private double getFloat(int address) {
+        long bits = 0;
+        for (int x = 0; x < 6; x++) bits = (bits << 8) | (memory[(address + x) & ADDRESS_MASK] & 0xFF);
+        long fraction = bits & 0xFFFFFFFFFL;
+        if (fraction == 0)
+            return 0;
+        int exponent = (int) ((bits >>> 36) & 0x7FF) - 1024;
+        double value = Math.scalb((double) fraction, exponent - 36);
+        return ((bits >>> 47) != 0) ? -value : value;
+    }
+
+    private void setFloat(int address, double value) {
+        long bits = 0;
+        if (value != 0 && !Double.isNaN(value)) {
+            double magnitude = Math.abs(value);
+            int exponent = Math.getExponent(magnitude) + 1;
+            long fraction = Math.round(Math.scalb(magnitude, 36 - exponent));
+            if (fraction >= (1L << 36)) {
+                fraction >>= 1;
+                exponent++;
+            }
+            exponent = Math.max(0, Math.min(2047, exponent + 1024));
+            bits = ((value < 0) ? 1L << 47 : 0) | ((long) exponent << 36) | fraction;
+        }
+        for (int x = 5; x >= 0; x--) {
+            setByte((address + x) & ADDRESS_MASK, (int) bits);
+            bits >>>= 8;
+        }
+    }
+
+    public int getRegister(int number) {
+        return (number == F) ? (int) f & WORD_MASK : register[number];
+    }
+
+    public void setRegister(int number, int value) {
+        if (number == F)
+            f = signed(value & WORD_MASK);
+        else
+            register[number] = value & WORD_MASK;
+    }
+
+    public double getF() {
+        return f;
+    }
+
+    // for reading, writes have to go through setByte()/setWord() to keep the decode cache right
+    public byte[] getMemory() {
+        return memory;
+    }
+
+    public Devices getDevices() {
+        return devices;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getStatusDescription() {
+        return STATUS[status];
+    }
+
+    public long getExecuted() {
+        return executed;
+    }
+
+    // how many times an instruction had to be decoded, once per address unless the code changes
+    public long getDecodes() {
+        return decodes;
+    }
+}
@@ -0,0 +1,124 @@
+package com.bittle.SIC.simulator;
+
+import com.bittle.SIC.object.ControlSection;
+import com.bittle.SIC.object.ObjectFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// loads an object program and runs it, for regression testing what the assembler makes
+public class Simulator {
+    private final Machine machine;
+    private final Loader loader = new Loader();
+    private LinkingLoader linker;       /* null unless the program was linked */
+    private long elapsedNanos = 0;
+
+    public Simulator(Devices devices) {
+        machine = new Machine(devices);
+    }
+
+    // loads objectFile and runs it from its E record address, returns the Machine status. A relocatable
+    // program (START 0, control sections) is linked at its own starting address instead
+    public int run(String objectFile, long limit) throws IOException {
+        List<ControlSection> sections = ObjectFile.read(new File(objectFile));
+        if (!Loader.needsLinking(sections))
+            return execute(loader.load(machine, sections), limit);
+        linker = new LinkingLoader(machine, sections.get(0).getStartingAddress());
+        linker.load(sections);
+        return execute(linker.finish(), limit);
+    }
+
+    // links the object files from programAddress with the LinkingLoader, then runs from the first E record address
+    public int run(List<String> objectFiles, int programAddress, long limit) throws IOException {
+        linker = new LinkingLoader(machine, programAddress);
+        for (String objectFile : objectFiles)
+            linker.load(objectFile);
+        return execute(linker.finish(), limit);
+    }
+
+    private int execute(int start, long limit) throws IOException {
+        machine.reset(start);
+        long begin = System.nanoTime();
+        try {
+            return machine.run(limit);
+        } finally {
+            elapsedNanos = System.nanoTime() - begin;
+            machine.getDevices().flush();
+        }
+    }
+
+    public Machine getMachine() {
+        return machine;
+    }
+
+    public Loader getLoader() {
+        return loader;
+    }
+
+    public String summary() {
+        return String.format("PROGRAM %s: %s%n" +
+                        "A=%06X X=%06X L=%06X B=%06X S=%06X T=%06X PC=%06X SW=%06X F=%s%n" +
+                        "%d INSTRUCTIONS (%d DECODED) IN %.3f s, %.1f MILLION/s",
+                (linker == null) ? loader.getProgramName() : linker.getProgramName(), machine.getStatusDescription(),
+                machine.getRegister(Machine.A), machine.getRegister(Machine.X), machine.getRegister(Machine.L),
+                machine.getRegister(Machine.B), machine.getRegister(Machine.S), machine.getRegister(Machine.T),
+                machine.getRegister(Machine.PC), machine.getRegister(Machine.SW), machine.getF(),
+                machine.getExecuted(), machine.getDecodes(), elapsedNanos / 1e9, machine.getExecuted() * 1e3 / Math.max(1, elapsedNanos));
+    }
+
+    // usage: Simulator [-d deviceDirectory] [-n instructionLimit] [-f XX=file]... [-a address] object.obj...
+    // device XX is XX.dev in the device directory unless -f maps it, "-" is stdin/stdout.
+    // More than one object file, or -a, links them with the LinkingLoader from address (hex, 0 if not given)
+    public static void main(String[] args) throws IOException {
+        File directory = new File(".");
+        long limit = Long.MAX_VALUE;
+        int programAddress = -1;
+        List<String> objectFiles = new ArrayList<>();
+        String[] mappings = new String[args.length];
+        int mapped = 0;
+        for (int x = 0; x < args.length; x++) {
+            if (args[x].equals("-d") && x + 1 < args.length) {
+                directory = new File(args[++x]);
+            } else if (args[x].equals("-n") && x + 1 < args.length) {
+                limit = Long.parseLong(args[++x]);
+            } else if (args[x].equals("-f") && x + 1 < args.length) {
+                mappings[mapped++] = args[++x];
+            } else if (args[x].equals("-a") && x + 1 < args.length) {
+                programAddress = Integer.parseInt(args[++x], 16);
+            } else {
+                objectFiles.add(args[x]);
+            }
+        }
+        if (objectFiles.isEmpty()) {
+            System.out.println("usage: Simulator [-d deviceDirectory] [-n instructionLimit] [-f XX=file]... " +
+                    "[-a address] object.obj...");
+            return;
+        }
+
+        Devices devices = new Devices(directory);
+        for (int x = 0; x < mapped; x++) {
+            int equals = mappings[x].indexOf('=');
+            int device = Integer.parseInt(mappings[x].substring(0, equals), 16);
+            String file = mappings[x].substring(equals + 1);
+            if (file.equals("-")) {
+                devices.setInput(device, System.in);
+                devices.setOutput(device, System.out);
+            } else {
+                devices.map(device, new File(file));
+            }
+        }
+
+        Simulator simulator = new Simulator(devices);
+        try {
+            if (objectFiles.size() == 1 && programAddress < 0)
+                simulator.run(objectFiles.get(0), limit);
+            else
+                simulator.run(objectFiles, Math.max(0, programAddress), limit);
+        } finally {
+            devices.close();
+        }
+        System.err.println(simulator.summary());
+    }
+}
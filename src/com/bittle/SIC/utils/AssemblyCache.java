@@ -0,0 +1,299 @@
+package com.bittle.SIC.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+// on disk cache of assembled sources, one entry per source file:
+//   <key>.meta   content hash, header, symbol table, pass 1 records and their object code
+//   <key>.obj    object file, only if it was created
+//   <key>.lst    listing file
+// an entry is used whole if the content hash matches, otherwise its records let
+// pass 1 resume after the unchanged lines and pass 2 skip the object program if that didn't change
+public class AssemblyCache {
+    private static final String MAGIC = "SICCACHE 1";
+    public static final long EMPTY_HASH = 0xCBF29CE484222325L;    /* FNV offset basis */
+
+    private final File directory;
+
+    public AssemblyCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // SHA-256 of the source bytes, the limits they were assembled with and how the T records were packed
+    // (the TextPacker's class name)
+    public static String contentHash(String sourceFile, Limits limits, String packing) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = new FileInputStream(sourceFile);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) > 0) digest.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+        digest.update((limits.getMaxProgramLength() + "," + limits.getMaxSymbols() + ","
+                + limits.getMaxSymbolLength() + "," + packing).getBytes("US-ASCII"));
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    // FNV-1a, for the source lines and the pass 1 records
+    public static long hash(long hash, CharSequence source, int start, int end) {
+        for (int x = start; x < end; x++) {
+            hash ^= source.charAt(x);
+            hash *= 0x100000001B3L;
+        }
+        // keeps "AB"+"C" and "A"+"BC" apart
+        return hash(hash, end - start);
+    }
+
+    public static long hash(long hash, CharSequence source) {
+        return hash(hash, source, 0, source.length());
+    }
+
+    public static long hash(long hash, long value) {
+        for (int x = 0; x < 8; x++) {
+            hash ^= (value >>> (x * 8)) & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    // first hash of every line and record, so entries made with other limits never match
+    public static long seed(Limits limits) {
+        long hash = hash(EMPTY_HASH, limits.getMaxProgramLength());
+        hash = hash(hash, limits.getMaxSymbols());
+        return hash(hash, limits.getMaxSymbolLength());
+    }
+
+    // entry files are named after the source file and a hash of where it is
+    private File file(String sourceFile, String extension) throws IOException {
+        String path = new File(sourceFile).getCanonicalPath();
+        String name = new File(path).getName();
+        return new File(directory, name + "-" + Long.toHexString(hash(EMPTY_HASH, path)) + extension);
+    }
+
+    // null if there is no entry for the file (or it can't be read). If the content hash matches
+    // only the header and symbol table are read, otherwise only the header and the records
+    public Entry load(String sourceFile, String contentHash, int expectedSymbols) {
+        File meta;
+        try {
+            meta = file(sourceFile, ".meta");
+        } catch (IOException e) {
+            return null;
+        }
+        if (!meta.isFile())
+            return null;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(meta));
+            try {
+                if (!MAGIC.equals(reader.readLine()))
+                    return null;
+                Entry entry = new Entry();
+                entry.contentHash = reader.readLine();
+                entry.objectHash = Long.parseUnsignedLong(reader.readLine(), 16);
+                String[] header = reader.readLine().split("\t", -1);
+                entry.programName = header[0];
+                entry.startingAddress = Long.parseUnsignedLong(header[1], 16);
+                entry.programLength = Long.parseUnsignedLong(header[2], 16);
+                entry.sourceLines = Long.parseLong(header[3]);
+                entry.hasErrors = header[4].equals("1");
+
+                int symbols = Integer.parseInt(reader.readLine());
+                boolean hit = entry.contentHash.equals(contentHash);
+                if (hit)
+                    entry.symbolTable = new SymbolTable(Math.max(symbols, expectedSymbols));
+                for (int x = 0; x < symbols; x++) {
+                    String symbol = reader.readLine();
+                    if (hit) {
+                        int tab = symbol.indexOf('\t');
+                        entry.symbolTable.put(symbol, 0, tab, Integer.parseInt(symbol.substring(tab + 1), 16));
+                    }
+                }
+                if (hit)
+                    return entry;
+
+                int records = Integer.parseInt(reader.readLine());
+                entry.lines = new ArrayList<>(records);
+                for (int x = 0; x < records; x++) {
+                    String[] field = reader.readLine().split("\t", -1);
+                    CachedLine line = new CachedLine(Long.parseUnsignedLong(field[0], 16), field[1].equals("1"),
+                            Long.parseUnsignedLong(field[2], 16), field[3], field[4].equals("1"), field[5], field[6],
+                            Long.parseUnsignedLong(field[7], 16), Long.parseUnsignedLong(field[9], 16),
+                            field[10].equals("1"));
+                    line.setPassTwo(field[11], Long.parseUnsignedLong(field[8], 16));
+                    entry.lines.add(line);
+                }
+                return entry;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // a broken entry is the same as none, it is written again after assembling
+            return null;
+        }
+    }
+
+    // keeps the outputs just written for sourceFile, the meta file goes last so a half written entry is never used
+    public void store(String sourceFile, Entry entry, SymbolTable symbolTable,
+                      String objectFile, String listingFile) throws IOException {
+        if (!directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("COULDN'T CREATE CACHE DIRECTORY " + directory);
+        File meta = file(sourceFile, ".meta");
+        File object = file(sourceFile, ".obj");
+        File listing = file(sourceFile, ".lst");
+        meta.delete();
+
+        if (new File(objectFile).isFile())
+            Files.copy(new File(objectFile).toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        else
+            object.delete();
+        Files.copy(new File(listingFile).toPath(), listing.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        File temp = new File(directory, meta.getName() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new FileWriter(temp), 1 << 16);
+        try {
+            writer.write(MAGIC + "\n");
+            writer.write(entry.contentHash + "\n");
+            writer.write(Long.toHexString(entry.objectHash) + "\n");
+            writer.write(entry.programName + "\t" + Long.toHexString(entry.startingAddress) + "\t"
+                    + Long.toHexString(entry.programLength) + "\t" + entry.sourceLines + "\t"
+                    + ((entry.hasErrors) ? "1" : "0") + "\n");
+
+            writer.write(symbolTable.size() + "\n");
+            for (int x = 0; x < symbolTable.capacity(); x++) {
+                if (symbolTable.isUsed(x))
+                    writer.write(symbolTable.label(x) + "\t" + Integer.toHexString(symbolTable.address(x)) + "\n");
+            }
+
+            writer.write(entry.lines.size() + "\n");
+            for (CachedLine line : entry.lines) {
+                writer.write(Long.toHexString(line.getHash()));
+                writer.write('\t');
+                writer.write((line.isComment()) ? "1" : "0");
+                writer.write('\t');
+                writer.write(Long.toHexString(line.getAddress()));
+                writer.write('\t');
+                writer.write(line.getOpcode());
+                writer.write('\t');
+                writer.write((line.isExtended()) ? "1" : "0");
+                writer.write('\t');
+                writer.write(line.getLabel());
+                writer.write('\t');
+                writer.write(line.getOperand());
+                writer.write('\t');
+                writer.write(Long.toHexString(line.getPassOneErrors()));
+                writer.write('\t');
+                writer.write(Long.toHexString(line.getErrors()));
+                writer.write('\t');
+                writer.write(Long.toHexString(line.getLocctr()));
+                writer.write('\t');
+                writer.write((line.isXeProgram()) ? "1" : "0");
+                writer.write('\t');
+                writer.write(line.getObjectCode());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(temp.toPath(), meta.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // puts the cached object file back, or deletes objectFile if there wasn't one
+    public void restoreObject(String sourceFile, String objectFile) throws IOException {
+        File object = file(sourceFile, ".obj");
+        if (object.isFile())
+            Files.copy(object.toPath(), new File(objectFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        else
+            new File(objectFile).delete();
+    }
+
+    public void restoreListing(String sourceFile, String listingFile) throws IOException {
+        Files.copy(file(sourceFile, ".lst").toPath(), new File(listingFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static class Entry {
+        private String contentHash;
+        private long objectHash;
+        private String programName;
+        private long startingAddress;
+        private long programLength;
+        private long sourceLines;
+        private boolean hasErrors;
+        private SymbolTable symbolTable;    /* only if the content hash matched */
+        private List<CachedLine> lines;     /* only if it didn't */
+
+        private Entry() {
+        }
+
+        public Entry(String contentHash, long objectHash, String programName, long startingAddress,
+                     long programLength, long sourceLines, boolean hasErrors, List<CachedLine> lines) {
+            this.contentHash = contentHash;
+            this.objectHash = objectHash;
+            this.programName = programName;
+            this.startingAddress = startingAddress;
+            this.programLength = programLength;
+            this.sourceLines = sourceLines;
+            this.hasErrors = hasErrors;
+            this.lines = lines;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public long getObjectHash() {
+            return objectHash;
+        }
+
+        public String getProgramName() {
+            return programName;
+        }
+
+        public long getStartingAddress() {
+            return startingAddress;
+        }
+
+        public long getProgramLength() {
+            return programLength;
+        }
+
+        public long getSourceLines() {
+            return sourceLines;
+        }
+
+        public boolean hasErrors() {
+            return hasErrors;
+        }
+
+        public SymbolTable getSymbolTable() {
+            return symbolTable;
+        }
+
+        public List<CachedLine> getLines() {
+            return lines;
+        }
+    }
+}
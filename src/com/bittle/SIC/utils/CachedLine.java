@@ -0,0 +1,94 @@
+package com.bittle.SIC.utils;
+
+// what the cache keeps of one pass 1 record: enough to put the record, its symbol and the
+// pass 1 state after it back without scanning the line again, plus the object code pass 2 made for it
+public class CachedLine {
+    private final long hash;            /* of the source line */
+    private final boolean comment;
+    private final long address;
+    private final String opcode;        /* mnemonic, "" if invalid */
+    private final boolean extended;
+    private final String label;         /* "" if none */
+    private final String operand;
+    private final long passOneErrors;
+    private final long locctr;          /* LOCCTR after the line */
+    private final boolean xeProgram;    /* after the line */
+    private String objectCode = "";
+    private long errors;                /* after pass 2 */
+
+    public CachedLine(long hash, boolean comment, long address, String opcode, boolean extended, String label,
+                      String operand, long passOneErrors, long locctr, boolean xeProgram) {
+        this.hash = hash;
+        this.comment = comment;
+        this.address = address;
+        this.opcode = opcode;
+        this.extended = extended;
+        this.label = label;
+        this.operand = operand;
+        this.passOneErrors = passOneErrors;
+        this.locctr = locctr;
+        this.xeProgram = xeProgram;
+        this.errors = passOneErrors;
+    }
+
+    // the Line pass 1 made for source
+    public Line toLine(CharSequence source) {
+        if (comment)
+            return Line.comment(source);
+        Opcode op = (opcode.isEmpty()) ? null : OpcodeTable.search(opcode);
+        return new Line(source, address, op, extended, operand, passOneErrors);
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public boolean isComment() {
+        return comment;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public String getOpcode() {
+        return opcode;
+    }
+
+    public boolean isExtended() {
+        return extended;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getOperand() {
+        return operand;
+    }
+
+    public long getPassOneErrors() {
+        return passOneErrors;
+    }
+
+    public long getLocctr() {
+        return locctr;
+    }
+
+    public boolean isXeProgram() {
+        return xeProgram;
+    }
+
+    public String getObjectCode() {
+        return objectCode;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public void setPassTwo(String objectCode, long errors) {
+        this.objectCode = objectCode;
+        this.errors = errors;
+    }
+}
@@ -0,0 +1,87 @@
+package com.bittle.SIC.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// the fewest T records: code that touches is joined into one run whatever line, block or literal pool it came
+// from, and every run is cut in records of RECORD_BYTES with only its last one shorter. A run of n bytes can't
+// take fewer than n / RECORD_BYTES records (rounded up), so no packing has fewer.
+// A record is written once it is full, only the unfilled end of a run is held. While the addresses only go up
+// that end is written as soon as code lands past it. Once they go back (an ORG, a USE) code may come back to
+// an earlier run, so the ends of up to OPEN_RUNS runs are held for it, the least recently added to written
+// first when there are more; a run that was already written can't be joined again. Code loaded over a held
+// end has that end written before it, so what is loaded last is still the same
+public class CoalescingTextPacker implements TextPacker {
+    private static final int OPEN_RUNS = 16;
+
+    private final List<Run> runs = new ArrayList<>();   /* held, least recently added to first */
+    private long high = -1;                             /* end of the highest code added */
+    private boolean reordered = false;                  /* addresses went back since the section started */
+
+    private static class Run {
+        final StringBuilder code = new StringBuilder(2 * RECORD_BYTES);    /* not written yet, < a record */
+        long address;                                                       /* of code */
+
+        Run(long address) {
+            this.address = address;
+        }
+
+        long end() {
+            return address + code.length() / 2;
+        }
+    }
+
+    @Override
+    public void add(long address, CharSequence objectCode, Records records) throws IOException {
+        if (objectCode.length() == 0)
+            return;
+        long end = address + objectCode.length() / 2;
+        if (address < high)
+            reordered = true;
+
+        Run run = null;
+        for (int x = runs.size() - 1; x >= 0; x--) {
+            Run held = runs.get(x);
+            if (run == null && held.end() == address) {
+                // the code goes on from it
+                run = runs.remove(x);
+            } else if ((held.address < end && address < held.end()) || (!reordered && held.end() < address)) {
+                // loaded over it, or the code is past it and won't come back
+                write(runs.remove(x), records);
+            }
+        }
+        if (run == null) {
+            if (runs.size() == OPEN_RUNS)
+                write(runs.remove(0), records);
+            run = new Run(address);
+        }
+        runs.add(run);
+
+        for (int from = 0; from < objectCode.length(); ) {
+            int take = Math.min(objectCode.length() - from, 2 * RECORD_BYTES - run.code.length());
+            run.code.append(objectCode, from, from + take);
+            from += take;
+            if (run.code.length() == 2 * RECORD_BYTES) {
+                records.record(run.address, run.code);
+                run.address += RECORD_BYTES;
+                run.code.setLength(0);
+            }
+        }
+        high = Math.max(high, end);
+    }
+
+    @Override
+    public void flush(Records records) throws IOException {
+        for (Run run : runs)
+            write(run, records);
+        runs.clear();
+        high = -1;
+        reordered = false;
+    }
+
+    private static void write(Run run, Records records) throws IOException {
+        if (run.code.length() > 0)
+            records.record(run.address, run.code);
+    }
+}
@@ -1,8 +1,7 @@
 package com.bittle.SIC.utils;
 
 public class Error {
-    private String description;
-    private boolean isSet = false;
+    private final String description;
 
     public Error(String description) {
         this.description = description;
@@ -12,14 +11,6 @@ public class Error {
         return description;
     }
 
-    public boolean isSet() {
-        return isSet;
-    }
-
-    public void setFlag(boolean set) {
-        isSet = set;
-    }
-
     @Override
     public boolean equals(Object obj) {
         if (obj.getClass() != getClass())
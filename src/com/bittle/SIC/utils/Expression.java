@@ -0,0 +1,221 @@
+package com.bittle.SIC.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// operand expressions: symbols, decimal numbers and * (the location counter) joined by + - * / and
+// parentheses, * and / before + and -, as in BUFEND-BUFFER or TABLE+3*N. Every term is absolute or relative
+// (a label or *, it moves with the program). The value is absolute if the relative terms pair up, +A-B,
+// relative if one is left over with a +, and illegal otherwise, as is a relative term multiplied or divided.
+// Relative terms of different program blocks are illegal too until the blocks are placed.
+// An EXTREF symbol is left to the linker: it counts 0 and goes in the externals with its sign
+public class Expression {
+    public static final int LEGAL = 0;
+    public static final int UNDEFINED = 1;      /* well formed, but some symbols aren't defined (yet) */
+    public static final int ILLEGAL = 2;
+
+    // where the symbols come from
+    public interface Symbols {
+        // value of source[start, end), SymbolTable.NOT_FOUND if it isn't defined
+        int value(CharSequence source, int start, int end);
+
+        boolean isAbsolute(CharSequence source, int start, int end);
+
+        boolean isExternal(CharSequence source, int start, int end);
+
+        // program block of a relative symbol
+        int block(CharSequence source, int start, int end);
+    }
+
+    private final Symbols symbols;
+    private CharSequence source;
+    private int position;
+    private int end;
+    private long locctr;
+    private int locctrBlock;
+    private boolean syntaxOnly;         /* no symbol is looked up */
+    private boolean illegal;
+    private int relative;               /* relative terms, + counts 1 and - counts -1 */
+    private int block;                  /* of the relative terms, -1 if none yet */
+    private long value;
+    private final List<String> undefined = new ArrayList<>();
+    private final List<String> externals = new ArrayList<>();   /* +NAME or -NAME */
+
+    public Expression(Symbols symbols) {
+        this.symbols = symbols;
+    }
+
+    // true if source[start, end) has an operator or *, anything else is a plain symbol or number
+    public static boolean isExpression(CharSequence source, int start, int end) {
+        for (int x = start; x < end; x++) {
+            char c = source.charAt(x);
+            if (c == '+' || c == '-' || c == '*' || c == '/' || c == '(' || c == ')')
+                return true;
+        }
+        return false;
+    }
+
+    // LEGAL, UNDEFINED or ILLEGAL. * is locctr
+    public int evaluate(CharSequence source, int start, int end, long locctr) {
+        return evaluate(source, start, end, locctr, 0);
+    }
+
+    // same, locctr is in program block locctrBlock
+    public int evaluate(CharSequence source, int start, int end, long locctr, int locctrBlock) {
+        this.source = source;
+        this.position = start;
+        this.end = end;
+        this.locctr = locctr;
+        this.locctrBlock = locctrBlock;
+        illegal = start == end;
+        relative = 0;
+        block = -1;
+        undefined.clear();
+        externals.clear();
+        value = expression(1);
+        if (position != end)
+            illegal = true;
+        if (illegal)
+            return ILLEGAL;
+        if (!undefined.isEmpty())
+            return UNDEFINED;
+        return (relative == 0 || relative == 1) ? LEGAL : ILLEGAL;
+    }
+
+    // only the syntax, whatever the symbols are
+    public boolean isWellFormed(CharSequence source, int start, int end) {
+        syntaxOnly = true;
+        try {
+            return evaluate(source, start, end, 0) != ILLEGAL;
+        } finally {
+            syntaxOnly = false;
+        }
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public boolean isRelative() {
+        return relative == 1;
+    }
+
+    // program block of the relative terms
+    public int getBlock() {
+        return (block < 0) ? 0 : block;
+    }
+
+    // undefined symbols, in the order they are used (a symbol used twice is there twice)
+    public List<String> getUndefined() {
+        return undefined;
+    }
+
+    // external symbols with their sign, +NAME or -NAME
+    public List<String> getExternals() {
+        return externals;
+    }
+
+    // sign is what the terms are multiplied by in the whole expression, 1 or -1
+    private long expression(int sign) {
+        long result = term(sign);
+        while (!illegal && position < end && (peek() == '+' || peek() == '-')) {
+            if (source.charAt(position++) == '+')
+                result += term(sign);
+            else
+                result -= term(-sign);
+        }
+        return result;
+    }
+
+    private long term(int sign) {
+        int relativeBefore = relative;
+        int externalsBefore = externals.size();
+        long result = factor(sign);
+        while (!illegal && position < end && (peek() == '*' || peek() == '/')) {
+            boolean multiply = source.charAt(position++) == '*';
+            long operand = factor(sign);
+            if (relative != relativeBefore || externals.size() != externalsBefore) {
+                // only absolute terms can be multiplied or divided
+                illegal = true;
+            } else if (multiply) {
+                result *= operand;
+            } else if (operand == 0) {
+                illegal = true;
+            } else {
+                result /= operand;
+            }
+        }
+        return result;
+    }
+
+    private long factor(int sign) {
+        if (position >= end) {
+            illegal = true;
+            return 0;
+        }
+        char c = source.charAt(position);
+        if (c == '(') {
+            position++;
+            long result = expression(sign);
+            if (position < end && source.charAt(position) == ')')
+                position++;
+            else
+                illegal = true;
+            return result;
+        } else if (c == '+') {
+            position++;
+            return factor(sign);
+        } else if (c == '-') {
+            position++;
+            return -factor(-sign);
+        } else if (c == '*') {
+            position++;
+            relative(sign, locctrBlock);
+            return locctr;
+        } else if (Character.isDigit(c)) {
+            long result = 0;
+            int start = position;
+            while (position < end && Character.isDigit(source.charAt(position))) {
+                result = result * 10 + (source.charAt(position++) - '0');
+            }
+            if (position - start > 9)
+                illegal = true;
+            return result;
+        } else if (Character.isAlphabetic(c)) {
+            int start = position++;
+            while (position < end && Character.isLetterOrDigit(source.charAt(position))) position++;
+            return symbol(start, position, sign);
+        }
+        illegal = true;
+        return 0;
+    }
+
+    private long symbol(int start, int end, int sign) {
+        if (syntaxOnly) {
+            undefined.add(source.subSequence(start, end).toString());
+            return 0;
+        }
+        int address = symbols.value(source, start, end);
+        if (address == SymbolTable.NOT_FOUND) {
+            if (symbols.isExternal(source, start, end))
+                externals.add(((sign > 0) ? "+" : "-") + source.subSequence(start, end));
+            else
+                undefined.add(source.subSequence(start, end).toString());
+            return 0;
+        }
+        if (!symbols.isAbsolute(source, start, end))
+            relative(sign, symbols.block(source, start, end));
+        return address;
+    }
+
+    private void relative(int sign, int termBlock) {
+        if (block >= 0 && block != termBlock)
+            illegal = true;
+        block = termBlock;
+        relative += sign;
+    }
+
+    private char peek() {
+        return source.charAt(position);
+    }
+}
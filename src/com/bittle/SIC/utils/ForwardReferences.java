@@ -0,0 +1,86 @@
+package com.bittle.SIC.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// EQUs whose expression uses symbols defined further down. Each one waits in the list of every symbol it
+// still needs, with a count of them; defining a symbol goes through its list once and hands back the EQUs
+// that have nothing left to wait for. Every dependency is looked at once, no expression is tried again
+// until it can be evaluated
+public class ForwardReferences {
+    public static class Waiting {
+        private final String label;
+        private final String expression;
+        private final long locctr;          /* what * is */
+        private final int block;            /* program block of * */
+        private int needs;                  /* symbols still undefined */
+
+        Waiting(String label, String expression, long locctr, int block) {
+            this.label = label;
+            this.expression = expression;
+            this.locctr = locctr;
+            this.block = block;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getExpression() {
+            return expression;
+        }
+
+        public long getLocctr() {
+            return locctr;
+        }
+
+        public int getBlock() {
+            return block;
+        }
+    }
+
+    // symbol -> EQUs waiting for it
+    private final Map<String, List<Waiting>> dependents = new HashMap<>();
+
+    // label EQU expression, expression needs the undefined symbols
+    public void add(String label, String expression, long locctr, int block, List<String> undefined) {
+        Waiting waiting = new Waiting(label, expression, locctr, block);
+        for (String symbol : undefined) {
+            List<Waiting> list = dependents.get(symbol);
+            if (list == null) {
+                list = new ArrayList<>();
+                dependents.put(symbol, list);
+            }
+            // a symbol used twice is only waited for once
+            if (list.isEmpty() || list.get(list.size() - 1) != waiting) {
+                list.add(waiting);
+                waiting.needs++;
+            }
+        }
+    }
+
+    // symbol is defined: the EQUs that were only waiting for it
+    public List<Waiting> defined(String symbol) {
+        List<Waiting> list = dependents.remove(symbol);
+        if (list == null)
+            return Collections.emptyList();
+        List<Waiting> ready = new ArrayList<>();
+        for (Waiting waiting : list) {
+            if (--waiting.needs == 0)
+                ready.add(waiting);
+        }
+        return ready;
+    }
+
+    public boolean isEmpty() {
+        return dependents.isEmpty();
+    }
+
+    // what is left never gets a value, pass 2 finds the undefined symbols again
+    public void clear() {
+        dependents.clear();
+    }
+}
@@ -0,0 +1,31 @@
+package com.bittle.SIC.utils;
+
+import java.io.IOException;
+
+// records in source order as the lines come: a line goes in the record being filled if it is right after it
+// and all of it fits, otherwise that record is written and the line starts the next one. An instruction is
+// never cut in two
+public class GreedyTextPacker implements TextPacker {
+    private final StringBuilder record = new StringBuilder(2 * RECORD_BYTES);
+    private long address = -1;          /* of record */
+
+    @Override
+    public void add(long address, CharSequence objectCode, Records records) throws IOException {
+        if (objectCode.length() == 0)
+            return;
+        if (record.length() > 0 && (address != this.address + record.length() / 2
+                || record.length() + objectCode.length() > 2 * RECORD_BYTES))
+            flush(records);
+        if (record.length() == 0)
+            this.address = address;
+        record.append(objectCode);
+    }
+
+    @Override
+    public void flush(Records records) throws IOException {
+        if (record.length() == 0)
+            return;
+        records.record(address, record);
+        record.setLength(0);
+    }
+}
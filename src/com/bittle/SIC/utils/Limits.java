@@ -0,0 +1,35 @@
+package com.bittle.SIC.utils;
+
+// how big a program the assembler accepts.
+// CLASSIC is the original SIC machine, LARGE is for generated programs that fill the 1MB SIC/XE memory
+public class Limits {
+    public static final Limits CLASSIC = new Limits(32768, 500, 6);
+    public static final Limits LARGE = new Limits(0x100000, Integer.MAX_VALUE, 32);
+
+    private final long maxProgramLength;    /* bytes */
+    private final int maxSymbols;
+    private final int maxSymbolLength;
+
+    public Limits(long maxProgramLength, int maxSymbols, int maxSymbolLength) {
+        this.maxProgramLength = maxProgramLength;
+        this.maxSymbols = maxSymbols;
+        this.maxSymbolLength = maxSymbolLength;
+    }
+
+    public long getMaxProgramLength() {
+        return maxProgramLength;
+    }
+
+    public int getMaxSymbols() {
+        return maxSymbols;
+    }
+
+    public int getMaxSymbolLength() {
+        return maxSymbolLength;
+    }
+
+    // initial symbol table capacity, big programs skip the early rehashes
+    public int expectedSymbols() {
+        return (maxSymbols == Integer.MAX_VALUE) ? 4096 : 64;
+    }
+}
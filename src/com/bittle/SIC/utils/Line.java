@@ -0,0 +1,85 @@
+package com.bittle.SIC.utils;
+
+// one source line as handed from pass 1 to pass 2
+public class Line {
+    private final CharSequence source;
+    private final boolean comment;
+    private final long address;
+    private final Opcode opcode;    /* null if not an instruction or directive */
+    private final boolean extended; /* +OPCODE, format 4 */
+    private final String operand;
+    private long errors;            /* bit x set = ERRTAB[x] */
+
+    public Line(CharSequence source, long address, Opcode opcode, String operand, long errors) {
+        this(source, address, opcode, false, operand, errors);
+    }
+
+    public Line(CharSequence source, long address, Opcode opcode, boolean extended, String operand, long errors) {
+        this.source = source;
+        this.comment = false;
+        this.address = address;
+        this.opcode = opcode;
+        this.extended = extended;
+        this.operand = operand;
+        this.errors = errors;
+    }
+
+    private Line(CharSequence source) {
+        this.source = source;
+        this.comment = true;
+        this.address = -1;
+        this.opcode = null;
+        this.extended = false;
+        this.operand = "";
+        this.errors = 0;
+    }
+
+    public static Line comment(CharSequence source) {
+        return new Line(source);
+    }
+
+    // the same line relocation further, once its program block is placed
+    public Line moved(long relocation) {
+        return new Line(source, address + relocation, opcode, extended, operand, errors);
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    public boolean isComment() {
+        return comment;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public boolean isExtended() {
+        return extended;
+    }
+
+    public boolean isInstruction() {
+        return opcode != null && !opcode.isDirective();
+    }
+
+    public String getOperand() {
+        return operand;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public boolean hasErrors() {
+        return errors != 0;
+    }
+
+    public void addErrors(long errors) {
+        this.errors |= errors;
+    }
+}
@@ -0,0 +1,25 @@
+package com.bittle.SIC.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+
+// where pass 1 takes its lines from, one at a time
+public interface LineSource extends Closeable {
+    // null at the end
+    CharSequence readLine() throws IOException;
+
+    static LineSource of(final BufferedReader reader) {
+        return new LineSource() {
+            @Override
+            public CharSequence readLine() throws IOException {
+                return reader.readLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package com.bittle.SIC.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// LITTAB: the literals (=C'EOF', =X'05') of a program, kept by value, so =C'EOF' and =X'454F46' are one
+// literal. A literal goes in the open pool the first time it is used; LTORG, CSECT and END close the pool
+// and the assembler places its literals right there. Pools are numbered from 0 in source order and each one
+// has its own copy of a literal, a line's literal is in the first pool closed after it
+public class LiteralTable {
+    private final SymbolTable open = new SymbolTable(16);      /* value -> index in operands, open pool only */
+    private final List<String> operands = new ArrayList<>();   /* as first written, without the = */
+    private final List<String> values = new ArrayList<>();     /* object code, uppercase hex */
+    private final SymbolTable placed = new SymbolTable(64);    /* "pool:value" -> address */
+    private long[] moved = new long[8];                         /* what each pool was relocated by */
+    private int pool = 0;
+
+    // false if the open pool already has a literal with that value
+    public boolean add(String operand, String value) {
+        if (!open.put(value, operands.size()))
+            return false;
+        operands.add(operand);
+        values.add(value);
+        return true;
+    }
+
+    // literals of the open pool, in the order they were first used
+    public int pending() {
+        return operands.size();
+    }
+
+    public String operand(int index) {
+        return operands.get(index);
+    }
+
+    public void place(int index, long address) {
+        placed.put(key(pool, values.get(index)), (int) address);
+    }
+
+    // after its literals are placed, the next lines get a new pool
+    public void close() {
+        if (!operands.isEmpty()) {
+            open.clear();
+            operands.clear();
+            values.clear();
+        }
+        pool++;
+    }
+
+    // number of the open pool
+    public int getPool() {
+        return pool;
+    }
+
+    // the literals of pool are placed relocation further, with the program block they are in
+    public void move(int pool, long relocation) {
+        if (pool >= moved.length)
+            moved = Arrays.copyOf(moved, Math.max(moved.length * 2, pool + 1));
+        moved[pool] += relocation;
+    }
+
+    // address of the literal with value in pool, SymbolTable.NOT_FOUND if it wasn't placed
+    public int get(int pool, String value) {
+        int address = placed.get(key(pool, value));
+        return (address == SymbolTable.NOT_FOUND || pool >= moved.length) ? address : (int) (address + moved[pool]);
+    }
+
+    public int size() {
+        return placed.size();
+    }
+
+    private static String key(int pool, String value) {
+        return pool + ":" + value;
+    }
+}
@@ -0,0 +1,317 @@
+package com.bittle.SIC.utils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// MACRO/MEND processor between the source and pass 1, expanding as pass 1 reads. A definition
+//   NAME    MACRO   &P1,&P2,...
+//           body
+//           MEND
+// goes in DEFTAB with its parameters written ?1, ?2... (a '?' of its own is ??), NAMTAB takes NAME to it.
+// An invocation
+//   LABEL   NAME    A1,A2,...
+// becomes a comment with the invocation, then the body with the arguments in place of the parameters
+// (missing ones are empty) and LABEL on its first statement, or on a LABEL EQU * of its own if that one
+// has a label already. A $ that starts a label in the body is replaced by a different two letters every
+// expansion ($LOOP is AALOOP, then ABLOOP...), so a name of up to 4 after the $ still fits in 6; a longer
+// one is too long for pass 1 like any other label. Letters that would make a label already defined above
+// (in the source or by an earlier expansion) are skipped. The expanded lines are read again like source
+// lines, so a body can invoke or define macros of its own.
+// A line this can't make sense of is left for pass 1 to report: MACRO without a name or with parameters
+// that don't start with &, a name that is already defined, a definition without MEND, an invocation nested
+// too deep.
+// Expansions are cached by invocation, so an idiom used over and over is only substituted once
+public class MacroProcessor implements LineSource {
+    private static final int MAX_DEPTH = 64;                /* expansions inside expansions */
+    private static final int CACHED_EXPANSIONS = 1024;
+
+    private final LineSource source;
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final SymbolTable namtab = new SymbolTable(64);     /* name -> index in definitions */
+    private final List<Definition> definitions = new ArrayList<>();
+    private final List<String> deftab = new ArrayList<>();
+    // lines read before the source, innermost expansion first
+    private final Deque<Iterator<? extends CharSequence>> pending = new ArrayDeque<>();
+    // "index,arguments" -> expanded body, $ labels not numbered yet. Least recently used goes first
+    private final Map<String, List<String>> expansionCache =
+            new LinkedHashMap<String, List<String>>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                    return size() > CACHED_EXPANSIONS;
+                }
+            };
+    private int uniqueLabels = 0;           /* ids given to expansions with $ labels */
+    private final SymbolTable labels = new SymbolTable(512);    /* of the lines read so far */
+    private long expansions = 0;
+    private long cacheHits = 0;
+
+    private static class Definition {
+        final int start;                    /* body is deftab[start, end) */
+        final int end;
+        final boolean unique;               /* has a $ to number */
+
+        Definition(int start, int end, boolean unique) {
+            this.start = start;
+            this.end = end;
+            this.unique = unique;
+        }
+    }
+
+    public MacroProcessor(LineSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public CharSequence readLine() throws IOException {
+        CharSequence line;
+        while ((line = nextLine()) != null) {
+            tokenizer.scan(line);
+            if (tokenizer.isBlank() || tokenizer.isComment())
+                return line;
+            if (tokenizer.hasLabel() && !tokenizer.opcodeIs("MACRO"))
+                labels.put(line, tokenizer.labelStart(), tokenizer.labelEnd(), 0);
+            if (tokenizer.opcodeIs("MACRO")) {
+                if (define(line))
+                    continue;
+            } else if (!definitions.isEmpty()) {
+                int index = namtab.get(line, tokenizer.opcodeStart(), tokenizer.opcodeEnd());
+                if (index != SymbolTable.NOT_FOUND && expand(index))
+                    return "." + line;
+            }
+            return line;
+        }
+        return null;
+    }
+
+    private CharSequence nextLine() throws IOException {
+        while (!pending.isEmpty()) {
+            Iterator<? extends CharSequence> lines = pending.peek();
+            if (lines.hasNext())
+                return lines.next();
+            pending.pop();
+        }
+        return source.readLine();
+    }
+
+    // the MACRO line the tokenizer just scanned: its body, up to the matching MEND, goes in DEFTAB.
+    // false if it isn't a definition after all, every line read is then given back
+    private boolean define(CharSequence line) throws IOException {
+        if (!tokenizer.hasLabel() || namtab.contains(line, tokenizer.labelStart(), tokenizer.labelEnd()))
+            return false;
+        String name = tokenizer.label();
+        String[] parameters = (tokenizer.hasOperand()) ? tokenizer.operand().split(",", -1) : new String[0];
+        for (String parameter : parameters) {
+            if (parameter.length() < 2 || parameter.charAt(0) != '&')
+                return false;
+        }
+
+        int start = deftab.size();
+        List<CharSequence> read = new ArrayList<>();
+        boolean unique = false;
+        int level = 1;      /* definitions in the body are only made when it is expanded */
+        CharSequence body;
+        while ((body = nextLine()) != null) {
+            read.add(body);
+            tokenizer.scan(body);
+            if (!tokenizer.isComment()) {
+                if (tokenizer.opcodeIs("MACRO"))
+                    level++;
+                else if (tokenizer.opcodeIs("MEND") && --level == 0)
+                    break;
+            }
+            String stored = parameterize(body, parameters);
+            unique |= stored.indexOf('$') >= 0;
+            deftab.add(stored);
+        }
+        if (level > 0) {
+            // no MEND
+            deftab.subList(start, deftab.size()).clear();
+            pending.push(read.iterator());
+            return false;
+        }
+        namtab.put(name, definitions.size());
+        definitions.add(new Definition(start, deftab.size(), unique));
+        return true;
+    }
+
+    // &NAME -> ?n, n = its position in parameters
+    private static String parameterize(CharSequence line, String[] parameters) {
+        StringBuilder builder = new StringBuilder(line.length() + 8);
+        for (int x = 0; x < line.length(); x++) {
+            char c = line.charAt(x);
+            if (c == '?') {
+                builder.append("??");
+                continue;
+            }
+            int end = x + 1;
+            if (c == '&') {
+                while (end < line.length() && Character.isLetterOrDigit(line.charAt(end))) end++;
+            }
+            int position = (end > x + 1) ? position(parameters, line, x, end) : -1;
+            if (position < 0) {
+                builder.append(c);
+            } else {
+                builder.append('?').append(position + 1);
+                x = end - 1;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static int position(String[] parameters, CharSequence line, int start, int end) {
+        for (int x = 0; x < parameters.length; x++) {
+            if (parameters[x].contentEquals(line.subSequence(start, end)))
+                return x;
+        }
+        return -1;
+    }
+
+    // the invocation the tokenizer just scanned: its lines are read next. false if it can't be expanded
+    private boolean expand(int index) {
+        if (pending.size() >= MAX_DEPTH)
+            return false;
+        Definition definition = definitions.get(index);
+        String label = (tokenizer.hasLabel()) ? tokenizer.label() : null;
+        String operand = tokenizer.operand();
+
+        String key = index + "," + operand;
+        List<String> lines = expansionCache.get(key);
+        if (lines == null) {
+            lines = substitute(definition, (operand.isEmpty()) ? new String[0] : operand.split(",", -1));
+            expansionCache.put(key, lines);
+        } else {
+            cacheHits++;
+        }
+
+        int first = 0;
+        while (first < lines.size() && !isStatement(lines.get(first))) first++;
+        if (definition.unique || label != null) {
+            List<String> expanded = new ArrayList<>(lines.size() + 1);
+            do {
+                String id = (definition.unique) ? id(uniqueLabels++) : null;
+                expanded.clear();
+                for (String line : lines)
+                    expanded.add((id == null) ? line : number(line, id));
+            } while (definition.unique && clashes(lines, expanded));
+            if (label != null && (first == lines.size() || !Tokenizer.isSpace(lines.get(first).charAt(0)))) {
+                // no statement, or it has a label: LABEL is where the body starts
+                expanded.add(first, labeled(label, "        EQU     *"));
+            } else if (label != null) {
+                expanded.set(first, labeled(label, expanded.get(first)));
+            }
+            lines = expanded;
+        }
+        pending.push(lines.iterator());
+        expansions++;
+        return true;
+    }
+
+    // the body with ?n replaced by the nth argument
+    private List<String> substitute(Definition definition, String[] arguments) {
+        List<String> lines = new ArrayList<>(definition.end - definition.start);
+        for (int y = definition.start; y < definition.end; y++) {
+            String line = deftab.get(y);
+            if (line.indexOf('?') < 0) {
+                lines.add(line);
+                continue;
+            }
+            StringBuilder builder = new StringBuilder(line.length() + 16);
+            for (int x = 0; x < line.length(); x++) {
+                char c = line.charAt(x);
+                if (c != '?' || x + 1 == line.length()) {
+                    builder.append(c);
+                } else if (line.charAt(x + 1) == '?') {
+                    builder.append('?');
+                    x++;
+                } else {
+                    int n = 0;
+                    while (x + 1 < line.length() && Character.isDigit(line.charAt(x + 1)))
+                        n = n * 10 + (line.charAt(++x) - '0');
+                    if (n <= arguments.length)
+                        builder.append(arguments[n - 1]);
+                }
+            }
+            lines.add(builder.toString());
+        }
+        return lines;
+    }
+
+    // label in the spaces the line starts with if it fits, keeping the columns
+    private static String labeled(String label, String line) {
+        int spaces = 0;
+        while (spaces < line.length() && line.charAt(spaces) == ' ') spaces++;
+        return (spaces > label.length()) ? label + line.substring(label.length()) : label + line;
+    }
+
+    private static boolean isStatement(String line) {
+        for (int x = 0; x < line.length(); x++) {
+            if (!Tokenizer.isSpace(line.charAt(x)))
+                return line.charAt(0) != '.';
+        }
+        return false;
+    }
+
+    // true if a $ label of lines is numbered in expanded to a label that is already defined
+    private boolean clashes(List<String> lines, List<String> expanded) {
+        for (int x = 0; x < lines.size(); x++) {
+            if (lines.get(x).startsWith("$")) {
+                String line = expanded.get(x);
+                int end = 0;
+                while (end < line.length() && !Tokenizer.isSpace(line.charAt(end))) end++;
+                if (labels.contains(line, 0, end))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // AA, AB, ... ZZ, then BAA...
+    private static String id(int number) {
+        StringBuilder builder = new StringBuilder();
+        do {
+            builder.append((char) ('A' + number % 26));
+            number /= 26;
+        } while (number > 0 || builder.length() < 2);
+        return builder.reverse().toString();
+    }
+
+    // $ at the start of a word, outside quotes, is replaced by id
+    private static String number(String line, String id) {
+        StringBuilder builder = new StringBuilder(line.length() + 8);
+        boolean quoted = false;
+        for (int x = 0; x < line.length(); x++) {
+            char c = line.charAt(x);
+            if (c == '$' && !quoted && (x == 0 || !Character.isLetterOrDigit(line.charAt(x - 1)))) {
+                builder.append(id);
+                continue;
+            }
+            builder.append(c);
+            if (c == '\'')
+                quoted = !quoted;
+        }
+        return builder.toString();
+    }
+
+    public int getDefinitions() {
+        return definitions.size();
+    }
+
+    public long getExpansions() {
+        return expansions;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,81 @@
+package com.bittle.SIC.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// reads a source file line by line straight out of a memory mapped copy of it.
+// Sources are ASCII, so a line is only a view over the mapped bytes: nothing is decoded or copied
+public class MappedSource implements LineSource {
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private int position = 0;
+
+    public MappedSource(String fileName) throws IOException {
+        file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("FILE " + fileName + " TOO LARGE TO MAP");
+            size = (int) channel.size();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // same as BufferedReader.readLine(), null at the end of the file
+    @Override
+    public CharSequence readLine() {
+        if (position >= size)
+            return null;
+        int start = position;
+        int end = start;
+        while (end < size && buffer.get(end) != '\n' && buffer.get(end) != '\r') end++;
+
+        position = end + 1;
+        if (end < size && buffer.get(end) == '\r' && position < size && buffer.get(position) == '\n')
+            position++;
+        return new View(start, end - start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private class View implements CharSequence {
+        private final int start;
+        private final int length;
+
+        View(int start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new View(this.start + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            for (int x = 0; x < length; x++) chars[x] = charAt(x);
+            return new String(chars);
+        }
+    }
+}
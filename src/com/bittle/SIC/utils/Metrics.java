@@ -0,0 +1,232 @@
+package com.bittle.SIC.utils;
+
+import com.bittle.SIC.Assembler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+// counters and phase timings of one assembly. Only collected if the Assembler was given one,
+// so with metrics off the assembler pays a null check per event and nothing else
+public class Metrics {
+    private String sourceFile = "";
+    private String cache = "OFF";       /* OFF, MISS, PARTIAL, HIT */
+    private boolean created = false;
+    private long pass1Nanos = 0;
+    private long pass2Nanos = 0;
+    private long writeNanos = 0;
+    private long sourceLines = 0;
+    private long objectBytes = 0;
+    private long textRecords = 0;
+    private int symbols = 0;
+    private int symbolCapacity = 0;
+    private long opcodeHits = 0;
+    private long opcodeMisses = 0;
+    private int macros = 0;
+    private long macroExpansions = 0;
+    private long expansionCacheHits = 0;
+    private final long[] errors = new long[Assembler.ERROR_TYPES];     /* index = ERRTAB index */
+    private long allocatedBytes = -1;               /* -1 if the JVM can't tell */
+
+    public void setSourceFile(String sourceFile) {
+        this.sourceFile = sourceFile;
+    }
+
+    public void setCache(String cache) {
+        this.cache = cache;
+    }
+
+    public void setCreated(boolean created) {
+        this.created = created;
+    }
+
+    public void addPass1Nanos(long nanos) {
+        pass1Nanos += nanos;
+    }
+
+    public void addPass2Nanos(long nanos) {
+        pass2Nanos += nanos;
+    }
+
+    public void addWriteNanos(long nanos) {
+        writeNanos += nanos;
+    }
+
+    public void setSourceLines(long sourceLines) {
+        this.sourceLines = sourceLines;
+    }
+
+    public void textRecord(int bytes) {
+        objectBytes += bytes;
+        textRecords++;
+    }
+
+    public void setSymbolTable(SymbolTable symbolTable) {
+        symbols = symbolTable.size();
+        symbolCapacity = symbolTable.capacity();
+    }
+
+    public void opcodeLookup(boolean found) {
+        if (found)
+            opcodeHits++;
+        else
+            opcodeMisses++;
+    }
+
+    public void addOpcodeLookups(long hits, long misses) {
+        opcodeHits += hits;
+        opcodeMisses += misses;
+    }
+
+    public void setMacros(int macros, long expansions, long cacheHits) {
+        this.macros = macros;
+        macroExpansions = expansions;
+        expansionCacheHits = cacheHits;
+    }
+
+    // mask: bit x set = ERRTAB[x]
+    public void countErrors(long mask) {
+        while (mask != 0) {
+            errors[Long.numberOfTrailingZeros(mask)]++;
+            mask &= mask - 1;
+        }
+    }
+
+    public void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    // bytes allocated so far by the current thread, -1 if the JVM doesn't count them
+    public static long threadAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+            if (counting.isThreadAllocatedMemorySupported() && counting.isThreadAllocatedMemoryEnabled())
+                return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    public String getCache() {
+        return cache;
+    }
+
+    public boolean isCreated() {
+        return created;
+    }
+
+    public long getPass1Nanos() {
+        return pass1Nanos;
+    }
+
+    public long getPass2Nanos() {
+        return pass2Nanos;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    public long getSourceLines() {
+        return sourceLines;
+    }
+
+    public double linesPerSecond() {
+        return sourceLines * 1e9 / Math.max(1, pass1Nanos + pass2Nanos);
+    }
+
+    public long getObjectBytes() {
+        return objectBytes;
+    }
+
+    public long getTextRecords() {
+        return textRecords;
+    }
+
+    public int getSymbols() {
+        return symbols;
+    }
+
+    public double loadFactor() {
+        return (symbolCapacity == 0) ? 0 : (double) symbols / symbolCapacity;
+    }
+
+    public long getOpcodeHits() {
+        return opcodeHits;
+    }
+
+    public long getOpcodeMisses() {
+        return opcodeMisses;
+    }
+
+    public int getMacros() {
+        return macros;
+    }
+
+    public long getMacroExpansions() {
+        return macroExpansions;
+    }
+
+    public long getExpansionCacheHits() {
+        return expansionCacheHits;
+    }
+
+    public long getErrors(int index) {
+        return errors[index];
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public double allocatedBytesPerLine() {
+        return (allocatedBytes < 0 || sourceLines == 0) ? -1 : (double) allocatedBytes / sourceLines;
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder(512);
+        builder.append("{\n  \"source\": \"");
+        for (int x = 0; x < sourceFile.length(); x++) {
+            char c = sourceFile.charAt(x);
+            if (c == '"' || c == '\\')
+                builder.append('\\');
+            builder.append(c);
+        }
+        builder.append("\",\n  \"created\": ").append(created);
+        builder.append(",\n  \"cache\": \"").append(cache).append('"');
+        builder.append(",\n  \"phases_ms\": {\"pass1\": ").append(millis(pass1Nanos))
+                .append(", \"pass2\": ").append(millis(pass2Nanos))
+                .append(", \"write\": ").append(millis(writeNanos)).append('}');
+        builder.append(",\n  \"source_lines\": ").append(sourceLines);
+        builder.append(",\n  \"lines_per_second\": ").append(Math.round(linesPerSecond()));
+        builder.append(",\n  \"object_bytes\": ").append(objectBytes);
+        builder.append(",\n  \"text_records\": ").append(textRecords);
+        builder.append(",\n  \"symbols\": ").append(symbols);
+        builder.append(",\n  \"symbol_load_factor\": ").append(String.format(Locale.ROOT, "%.3f", loadFactor()));
+        builder.append(",\n  \"opcode_hits\": ").append(opcodeHits);
+        builder.append(",\n  \"opcode_misses\": ").append(opcodeMisses);
+        builder.append(",\n  \"macros\": ").append(macros);
+        builder.append(",\n  \"macro_expansions\": ").append(macroExpansions);
+        builder.append(",\n  \"expansion_cache_hits\": ").append(expansionCacheHits);
+        builder.append(",\n  \"errors\": {");
+        String separator = "";
+        for (int x = 0; x < errors.length; x++) {
+            if (errors[x] != 0) {
+                builder.append(separator).append('"').append(x).append("\": ").append(errors[x]);
+                separator = ", ";
+            }
+        }
+        builder.append('}');
+        builder.append(",\n  \"allocated_bytes_per_line\": ")
+                .append(String.format(Locale.ROOT, "%.1f", allocatedBytesPerLine()));
+        return builder.append("\n}\n").toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
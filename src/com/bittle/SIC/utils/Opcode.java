@@ -1,15 +1,38 @@
 package com.bittle.SIC.utils;
 
-public class Opcode implements Comparable<Opcode> {
-    private String mnemonic;
-    private int hexCode;
+public class Opcode {
+    // directives have no machine code, their size depends on the operand
+    public static final int DIRECTIVE = -1;
 
+    private final String mnemonic;
+    private final int hexCode;
+    private final int length;   /* instruction length in bytes, 4 if + is used on a format 3 */
+    private final int format;   /* 1, 2 or 3 (3/4), 0 for directives */
+    private final boolean xe;   /* only on SIC/XE */
+
+    // SIC instruction, format 3
     public Opcode(String mnemonic, int hexCode) {
+        this(mnemonic, hexCode, 3, false);
+    }
+
+    // directive
+    public Opcode(String mnemonic, int hexCode, int length) {
         this.mnemonic = mnemonic;
         this.hexCode = hexCode;
+        this.length = length;
+        this.format = 0;
+        this.xe = false;
     }
 
-    private String getMnemonic() {
+    public Opcode(String mnemonic, int hexCode, int format, boolean xe) {
+        this.mnemonic = mnemonic;
+        this.hexCode = hexCode;
+        this.length = format;
+        this.format = format;
+        this.xe = xe;
+    }
+
+    public String getMnemonic() {
         return mnemonic;
     }
 
@@ -17,16 +40,32 @@ public class Opcode implements Comparable<Opcode> {
         return hexCode;
     }
 
-    @Override
-    public int compareTo(Opcode o) {
-        return o.getMnemonic().compareTo(getMnemonic());
+    public int getLength() {
+        return length;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public boolean isXE() {
+        return xe;
+    }
+
+    public boolean isDirective() {
+        return hexCode == DIRECTIVE;
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj.getClass() != getClass())
+        if (obj == null || obj.getClass() != getClass())
             return false;
         Opcode o = (Opcode) obj;
         return o.getMnemonic().equals(getMnemonic());
     }
+
+    @Override
+    public int hashCode() {
+        return mnemonic.hashCode();
+    }
 }
@@ -0,0 +1,173 @@
+package com.bittle.SIC.utils;
+
+import java.util.Arrays;
+
+// OPTAB (SIC and SIC/XE) and the assembler directives behind one case-insensitive perfect hash:
+// every mnemonic gets its own slot, so a lookup is one hash, one compare and no allocation
+public class OpcodeTable {
+    public static final Opcode START = new Opcode("START", Opcode.DIRECTIVE, 0);
+    public static final Opcode END = new Opcode("END", Opcode.DIRECTIVE, 0);
+    public static final Opcode BYTE = new Opcode("BYTE", Opcode.DIRECTIVE, 0);
+    public static final Opcode WORD = new Opcode("WORD", Opcode.DIRECTIVE, 3);
+    public static final Opcode RESW = new Opcode("RESW", Opcode.DIRECTIVE, 0);
+    public static final Opcode RESB = new Opcode("RESB", Opcode.DIRECTIVE, 0);
+
+    // SIC/XE
+    public static final Opcode BASE = new Opcode("BASE", Opcode.DIRECTIVE, 0);
+    public static final Opcode NOBASE = new Opcode("NOBASE", Opcode.DIRECTIVE, 0);
+
+    // control sections and linking
+    public static final Opcode CSECT = new Opcode("CSECT", Opcode.DIRECTIVE, 0);
+    public static final Opcode EXTDEF = new Opcode("EXTDEF", Opcode.DIRECTIVE, 0);
+    public static final Opcode EXTREF = new Opcode("EXTREF", Opcode.DIRECTIVE, 0);
+
+    // literals
+    public static final Opcode LTORG = new Opcode("LTORG", Opcode.DIRECTIVE, 0);
+
+    // symbol definition and LOCCTR
+    public static final Opcode EQU = new Opcode("EQU", Opcode.DIRECTIVE, 0);
+    public static final Opcode ORG = new Opcode("ORG", Opcode.DIRECTIVE, 0);
+
+    // program blocks
+    public static final Opcode USE = new Opcode("USE", Opcode.DIRECTIVE, 0);
+
+    public static final Opcode RSUB = new Opcode("RSUB", 0x4C);
+    public static final Opcode CLEAR = new Opcode("CLEAR", 0xB4, 2, true);
+    public static final Opcode SHIFTL = new Opcode("SHIFTL", 0xA4, 2, true);
+    public static final Opcode SHIFTR = new Opcode("SHIFTR", 0xA8, 2, true);
+    public static final Opcode SVC = new Opcode("SVC", 0xB0, 2, true);
+    public static final Opcode TIXR = new Opcode("TIXR", 0xB8, 2, true);
+
+    private static final Opcode[] OPTAB = {
+            new Opcode("ADD", 0x18),    // 0
+            new Opcode("AND", 0x40),
+            new Opcode("COMP", 0x28),
+            new Opcode("DIV", 0x24),
+            new Opcode("J", 0x3C),
+            new Opcode("JEQ", 0x30),    // 5
+            new Opcode("JGT", 0x34),
+            new Opcode("JLT", 0x38),
+            new Opcode("JSUB", 0x48),
+            new Opcode("LDA", 0x00),
+            new Opcode("LDCH", 0x50),   // 10
+            new Opcode("LDL", 0x08),
+            new Opcode("LDX", 0x04),
+            new Opcode("MUL", 0x20),
+            new Opcode("OR", 0x44),
+            new Opcode("RD", 0xD8),     // 15
+            RSUB,
+            new Opcode("STA", 0x0C),
+            new Opcode("STCH", 0x54),
+            new Opcode("STL", 0x14),
+            new Opcode("STX", 0x10),    // 20
+            new Opcode("SUB", 0x1C),
+            new Opcode("TD", 0xE0),
+            new Opcode("TIX", 0x2C),
+            new Opcode("WD", 0xDC),     // 24
+
+            /* SIC/XE format 3/4 */
+            new Opcode("ADDF", 0x58, 3, true),
+            new Opcode("COMPF", 0x88, 3, true),
+            new Opcode("DIVF", 0x64, 3, true),
+            new Opcode("LDB", 0x68, 3, true),
+            new Opcode("LDF", 0x70, 3, true),
+            new Opcode("LDS", 0x6C, 3, true),
+            new Opcode("LDT", 0x74, 3, true),
+            new Opcode("LPS", 0xD0, 3, true),
+            new Opcode("MULF", 0x60, 3, true),
+            new Opcode("SSK", 0xEC, 3, true),
+            new Opcode("STB", 0x78, 3, true),
+            new Opcode("STF", 0x80, 3, true),
+            new Opcode("STI", 0xD4, 3, true),
+            new Opcode("STS", 0x7C, 3, true),
+            new Opcode("STSW", 0xE8, 3, true),
+            new Opcode("STT", 0x84, 3, true),
+            new Opcode("SUBF", 0x5C, 3, true),
+
+            /* SIC/XE format 2 */
+            new Opcode("ADDR", 0x90, 2, true),
+            CLEAR,
+            new Opcode("COMPR", 0xA0, 2, true),
+            new Opcode("DIVR", 0x9C, 2, true),
+            new Opcode("MULR", 0x98, 2, true),
+            new Opcode("RMO", 0xAC, 2, true),
+            SHIFTL,
+            SHIFTR,
+            new Opcode("SUBR", 0x94, 2, true),
+            SVC,
+            TIXR,
+
+            /* SIC/XE format 1 */
+            new Opcode("FIX", 0xC4, 1, true),
+            new Opcode("FLOAT", 0xC0, 1, true),
+            new Opcode("HIO", 0xF4, 1, true),
+            new Opcode("NORM", 0xC8, 1, true),
+            new Opcode("SIO", 0xF0, 1, true),
+            new Opcode("TIO", 0xF8, 1, true),
+    };
+
+    private static final Opcode[] DIRECTIVES = {START, END, BYTE, WORD, RESW, RESB, BASE, NOBASE, CSECT, EXTDEF, EXTREF,
+            LTORG, EQU, ORG, USE};
+
+    // register numbers for format 2 operands, index = number
+    private static final String[] REGISTERS = {"A", "X", "L", "B", "S", "T", "F", "", "PC", "SW"};
+
+    private static final int SIZE = 512;
+    private static final Opcode[] TABLE = new Opcode[SIZE];
+    private static int multiplier;
+
+    static {
+        // try multipliers until no two mnemonics share a slot
+        multiplier = 31;
+        while (!build(multiplier))
+            multiplier += 2;
+    }
+
+    private static boolean build(int multiplier) {
+        Arrays.fill(TABLE, null);
+        for (Opcode[] opcodes : new Opcode[][]{OPTAB, DIRECTIVES}) {
+            for (Opcode opcode : opcodes) {
+                String mnemonic = opcode.getMnemonic();
+                int slot = slot(mnemonic, 0, mnemonic.length(), multiplier);
+                if (TABLE[slot] != null)
+                    return false;
+                TABLE[slot] = opcode;
+            }
+        }
+        return true;
+    }
+
+    private static int slot(CharSequence source, int start, int end, int multiplier) {
+        int hash = 0;
+        for (int x = start; x < end; x++)
+            hash = hash * multiplier + Character.toUpperCase(source.charAt(x));
+        hash ^= (hash >>> 16);
+        return hash & (SIZE - 1);
+    }
+
+    // every machine instruction (no directives), for tables keyed by opcode
+    public static Opcode[] instructions() {
+        return OPTAB.clone();
+    }
+
+    // null if source[start, end) isn't an instruction or directive
+    public static Opcode search(CharSequence source, int start, int end) {
+        Opcode opcode = TABLE[slot(source, start, end, multiplier)];
+        if (opcode != null && Tokenizer.equalsIgnoreCase(source, start, end, opcode.getMnemonic()))
+            return opcode;
+        return null;
+    }
+
+    public static Opcode search(String mnemonic) {
+        return search(mnemonic, 0, mnemonic.length());
+    }
+
+    // -1 if source[start, end) isn't a register name
+    public static int register(CharSequence source, int start, int end) {
+        for (int x = 0; x < REGISTERS.length; x++) {
+            if (!REGISTERS[x].isEmpty() && Tokenizer.equalsIgnoreCase(source, start, end, REGISTERS[x]))
+                return x;
+        }
+        return -1;
+    }
+}
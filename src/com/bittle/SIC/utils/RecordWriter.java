@@ -0,0 +1,86 @@
+package com.bittle.SIC.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// writes listing lines and object records as they are made, through one fixed size buffer,
+// so memory doesn't grow with the program. Everything written is ASCII
+public class RecordWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long written = 0;
+    private long writeNanos = 0;
+
+    public RecordWriter(String fileName) throws IOException {
+        file = new File(fileName);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.setLength(0);
+        channel = out.getChannel();
+    }
+
+    public RecordWriter write(CharSequence text) throws IOException {
+        for (int x = 0; x < text.length(); x++) {
+            if (!buffer.hasRemaining())
+                flush();
+            buffer.put((byte) text.charAt(x));
+        }
+        written += text.length();
+        return this;
+    }
+
+    public RecordWriter write(char c) throws IOException {
+        if (!buffer.hasRemaining())
+            flush();
+        buffer.put((byte) c);
+        written++;
+        return this;
+    }
+
+    public RecordWriter writeLine(CharSequence text) throws IOException {
+        return write(text).write('\n');
+    }
+
+    // bytes written so far
+    public long getWritten() {
+        return written;
+    }
+
+    // time spent handing the buffer to the file, timed once per flush so it costs next to nothing
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+        writeNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // close and remove what was written, for an object file that turned out to have errors
+    public boolean delete() throws IOException {
+        buffer.clear();
+        channel.close();
+        return file.delete();
+    }
+}
@@ -0,0 +1,151 @@
+package com.bittle.SIC.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// a control section while it is assembled: its own symbols, the symbols it exports (EXTDEF), the
+// ones it takes from other sections (EXTREF) and its program blocks (USE). The first section is the program
+// itself
+public class Section {
+    private final String name;
+    private final long startingAddress;
+    private long length = 0;
+    private final SymbolTable symbols;
+    private final List<String> definitions = new ArrayList<>();
+    private final List<String> references = new ArrayList<>();
+    private final SymbolTable referenceTable = new SymbolTable(16);    /* name -> index in references */
+    private final SymbolTable absolutes = new SymbolTable(16);         /* symbols that don't move, from EQU */
+    // USE program blocks, numbered in the order they are first used. The default block "" is 0 and counts
+    // from the starting address, every other block from 0. endBlocks() puts them one after the other
+    private final SymbolTable blockNumbers = new SymbolTable(8);       /* name -> number */
+    private final List<Long> blockCounters = new ArrayList<>();        /* LOCCTR of each block, its end once done */
+    private final SymbolTable blockSymbols = new SymbolTable(16);      /* symbol -> its block, if not 0 */
+    private long[] blockStarts;                                         /* relocation of each block */
+    private int block = 0;
+
+    public Section(String name, long startingAddress, SymbolTable symbols) {
+        this.name = name;
+        this.startingAddress = startingAddress;
+        this.symbols = symbols;
+        blockNumbers.put("", 0);
+        blockCounters.add(startingAddress);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartingAddress() {
+        return startingAddress;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public List<String> getDefinitions() {
+        return definitions;
+    }
+
+    public void addDefinition(String name) {
+        definitions.add(name);
+    }
+
+    public List<String> getReferences() {
+        return references;
+    }
+
+    // false if name already is a reference
+    public boolean addReference(String name) {
+        if (!referenceTable.put(name, references.size()))
+            return false;
+        references.add(name);
+        return true;
+    }
+
+    public boolean isReference(CharSequence source, int start, int end) {
+        return referenceTable.contains(source, start, end);
+    }
+
+    public void addAbsolute(String name) {
+        absolutes.put(name, 0);
+    }
+
+    // every other symbol is relative to the start of the section
+    public boolean isAbsolute(CharSequence source, int start, int end) {
+        return absolutes.size() > 0 && absolutes.contains(source, start, end);
+    }
+
+    // USE name at locctr: the block left keeps its LOCCTR, returns the one of the block entered
+    public long use(String name, long locctr) {
+        blockCounters.set(block, locctr);
+        int number = blockNumbers.get(name);
+        if (number == SymbolTable.NOT_FOUND) {
+            number = blockCounters.size();
+            blockNumbers.put(name, number);
+            blockCounters.add(0L);
+        }
+        block = number;
+        return blockCounters.get(number);
+    }
+
+    // block LOCCTR is in
+    public int getBlock() {
+        return block;
+    }
+
+    // number of the block name, -1 if no USE made it
+    public int getBlock(CharSequence name) {
+        return blockNumbers.get(name);
+    }
+
+    public boolean hasBlocks() {
+        return blockCounters.size() > 1;
+    }
+
+    // the symbol's address is relative to the start of block
+    public void addBlockSymbol(CharSequence name, int block) {
+        if (block != 0)
+            blockSymbols.put(name, block);
+    }
+
+    // block of a relative symbol, 0 once endBlocks() placed them
+    public int blockOf(CharSequence source, int start, int end) {
+        int number = (blockSymbols.size() > 0) ? blockSymbols.get(source, start, end) : SymbolTable.NOT_FOUND;
+        return (number == SymbolTable.NOT_FOUND) ? 0 : number;
+    }
+
+    // the section is done at locctr: every block goes right after the one before it and its symbols move
+    // with it. Returns where the last block ends
+    public long endBlocks(long locctr) {
+        if (!hasBlocks())
+            return locctr;
+        blockCounters.set(block, locctr);
+        blockStarts = new long[blockCounters.size()];
+        long end = blockCounters.get(0);
+        for (int x = 1; x < blockStarts.length; x++) {
+            blockStarts[x] = end;
+            end += blockCounters.get(x);
+        }
+        for (int slot = 0; slot < blockSymbols.capacity(); slot++) {
+            if (blockSymbols.isUsed(slot))
+                symbols.relocate(blockSymbols.label(slot), (int) blockStarts[blockSymbols.address(slot)]);
+        }
+        blockSymbols.clear();
+        block = 0;
+        return end;
+    }
+
+    // what the addresses of block were relocated by, 0 until endBlocks()
+    public long getBlockStart(int block) {
+        return (blockStarts == null) ? 0 : blockStarts[block];
+    }
+}
@@ -0,0 +1,198 @@
+package com.bittle.SIC.utils;
+
+import java.util.Arrays;
+
+// SYMTAB: label -> address with open addressing (linear probing).
+// Label characters are copied once into one shared char pool, addresses are plain ints,
+// and lookups work on any span of a line so neither side needs a String
+public class SymbolTable {
+    public static final int NOT_FOUND = -1;
+
+    private int[] hashes;       /* 0 = empty slot */
+    private int[] offsets;      /* where the label starts in pool */
+    private int[] lengths;
+    private int[] addresses;
+    private char[] pool = new char[256];
+    private int poolSize = 0;
+    private int size = 0;
+
+    public SymbolTable() {
+        this(64);
+    }
+
+    public SymbolTable(int expectedSymbols) {
+        int capacity = 16;
+        while (capacity < expectedSymbols * 2) capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        addresses = new int[capacity];
+    }
+
+    private static int hash(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int x = start; x < end; x++) hash = 31 * hash + source.charAt(x);
+        hash ^= (hash >>> 16);
+        // 0 marks an empty slot
+        return (hash == 0) ? 1 : hash;
+    }
+
+    // slot of the label, or of the empty slot where it would go
+    private int slot(CharSequence source, int start, int end, int hash) {
+        int mask = hashes.length - 1;
+        int slot = hash & mask;
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == hash && matches(slot, source, start, end))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(int slot, CharSequence source, int start, int end) {
+        if (lengths[slot] != end - start)
+            return false;
+        int offset = offsets[slot];
+        for (int x = start; x < end; x++) {
+            if (pool[offset++] != source.charAt(x))
+                return false;
+        }
+        return true;
+    }
+
+    public int get(CharSequence source, int start, int end) {
+        int slot = slot(source, start, end, hash(source, start, end));
+        return (hashes[slot] == 0) ? NOT_FOUND : addresses[slot];
+    }
+
+    public int get(CharSequence label) {
+        return get(label, 0, label.length());
+    }
+
+    public boolean contains(CharSequence source, int start, int end) {
+        return hashes[slot(source, start, end, hash(source, start, end))] != 0;
+    }
+
+    public boolean contains(CharSequence label) {
+        return contains(label, 0, label.length());
+    }
+
+    // false if the label is already in the table
+    public boolean put(CharSequence source, int start, int end, int address) {
+        int hash = hash(source, start, end);
+        int slot = slot(source, start, end, hash);
+        if (hashes[slot] != 0)
+            return false;
+
+        int length = end - start;
+        reserve(length);
+        for (int x = start; x < end; x++) pool[poolSize + x - start] = source.charAt(x);
+        fill(slot, hash, length, address);
+        return true;
+    }
+
+    public boolean put(CharSequence label, int address) {
+        return put(label, 0, label.length(), address);
+    }
+
+    // adds relocation to the address of label, if it is in the table
+    public void relocate(CharSequence label, int relocation) {
+        int slot = slot(label, 0, label.length(), hash(label, 0, label.length()));
+        if (hashes[slot] != 0)
+            addresses[slot] += relocation;
+    }
+
+    // copies the label in slot of from, its address moved by relocation, without hashing it again.
+    // false if the label is already in the table
+    public boolean put(SymbolTable from, int fromSlot, int relocation) {
+        int hash = from.hashes[fromSlot];
+        int length = from.lengths[fromSlot];
+        int mask = hashes.length - 1;
+        int slot = hash & mask;
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == hash && lengths[slot] == length
+                    && regionMatches(pool, offsets[slot], from.pool, from.offsets[fromSlot], length))
+                return false;
+            slot = (slot + 1) & mask;
+        }
+
+        reserve(length);
+        System.arraycopy(from.pool, from.offsets[fromSlot], pool, poolSize, length);
+        fill(slot, hash, length, from.addresses[fromSlot] + relocation);
+        return true;
+    }
+
+    private static boolean regionMatches(char[] one, int offset, char[] other, int otherOffset, int length) {
+        for (int x = 0; x < length; x++) {
+            if (one[offset + x] != other[otherOffset + x])
+                return false;
+        }
+        return true;
+    }
+
+    private void reserve(int length) {
+        if (poolSize + length > pool.length)
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+    }
+
+    // label already copied to the end of pool
+    private void fill(int slot, int hash, int length, int address) {
+        hashes[slot] = hash;
+        offsets[slot] = poolSize;
+        lengths[slot] = length;
+        addresses[slot] = address;
+        poolSize += length;
+        size++;
+        // keep at most half full so probes stay short
+        if (size * 2 > hashes.length)
+            grow();
+    }
+
+    private void grow() {
+        int[] oldHashes = hashes, oldOffsets = offsets, oldLengths = lengths, oldAddresses = addresses;
+        allocate(hashes.length * 2);
+        int mask = hashes.length - 1;
+        for (int x = 0; x < oldHashes.length; x++) {
+            if (oldHashes[x] == 0)
+                continue;
+            int slot = oldHashes[x] & mask;
+            while (hashes[slot] != 0) slot = (slot + 1) & mask;
+            hashes[slot] = oldHashes[x];
+            offsets[slot] = oldOffsets[x];
+            lengths[slot] = oldLengths[x];
+            addresses[slot] = oldAddresses[x];
+        }
+    }
+
+    // empties the table but keeps its arrays, for assembling the next program with it
+    public void clear() {
+        Arrays.fill(hashes, 0);
+        poolSize = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // slots, for walking the table: for (x < capacity()) if (isUsed(x)) ... label(x), address(x)
+    public int capacity() {
+        return hashes.length;
+    }
+
+    public boolean isUsed(int slot) {
+        return hashes[slot] != 0;
+    }
+
+    public String label(int slot) {
+        return new String(pool, offsets[slot], lengths[slot]);
+    }
+
+    public int address(int slot) {
+        return addresses[slot];
+    }
+}
@@ -0,0 +1,22 @@
+package com.bittle.SIC.utils;
+
+import java.io.IOException;
+
+// cuts the object code of a control section into T records. Pass 2 adds the code of every line, (address,
+// bytes) in source order, and a record is written as soon as the packer knows it is done, so only the records
+// still being filled are held. CoalescingTextPacker makes the fewest records, GreedyTextPacker the ones pass 2
+// used to write as it went
+public interface TextPacker {
+    int RECORD_BYTES = 30;      /* object code of a T record, 60 hex digits */
+
+    // where the records go
+    interface Records {
+        void record(long address, CharSequence objectCode) throws IOException;
+    }
+
+    // objectCode, uppercase hex, is loaded at address. The records it finishes go to records
+    void add(long address, CharSequence objectCode, Records records) throws IOException;
+
+    // the records still held once the section ends, then starts over
+    void flush(Records records) throws IOException;
+}
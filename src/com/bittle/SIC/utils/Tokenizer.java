@@ -0,0 +1,135 @@
+package com.bittle.SIC.utils;
+
+// splits a source line into LABEL OPCODE OPERAND and comment in one pass,
+// keeping only the start and end of each word instead of copying them
+public class Tokenizer {
+    private CharSequence line = "";
+    private int labelStart, labelEnd;
+    private int opcodeStart, opcodeEnd;
+    private int operandStart, operandEnd;
+    private int commentStart;
+
+    public void scan(CharSequence line) {
+        this.line = line;
+        // a label has to start on the first column, no label if the line starts with whitespace
+        int x = 0;
+        labelStart = x;
+        x = skipWord(x);
+        labelEnd = x;
+
+        x = skipSpace(x);
+        opcodeStart = x;
+        x = skipWord(x);
+        opcodeEnd = x;
+
+        x = skipSpace(x);
+        operandStart = x;
+        x = skipWord(x);
+        operandEnd = x;
+
+        commentStart = skipSpace(x);
+    }
+
+    private int skipWord(int x) {
+        while (x < line.length() && !isSpace(line.charAt(x))) x++;
+        return x;
+    }
+
+    private int skipSpace(int x) {
+        while (x < line.length() && isSpace(line.charAt(x))) x++;
+        return x;
+    }
+
+    // same characters as \s in a regex
+    public static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    public boolean isBlank() {
+        return !hasLabel() && !hasOpcode();
+    }
+
+    public boolean isComment() {
+        return line.length() > 0 && line.charAt(0) == '.';
+    }
+
+    public boolean hasLabel() {
+        return labelEnd > labelStart;
+    }
+
+    public boolean hasOpcode() {
+        return opcodeEnd > opcodeStart;
+    }
+
+    public boolean hasOperand() {
+        return operandEnd > operandStart;
+    }
+
+    public boolean labelIs(String keyword) {
+        return equalsIgnoreCase(line, labelStart, labelEnd, keyword);
+    }
+
+    public boolean opcodeIs(String keyword) {
+        return equalsIgnoreCase(line, opcodeStart, opcodeEnd, keyword);
+    }
+
+    // Strings are only made when a word has to be kept
+    public String label() {
+        return line.subSequence(labelStart, labelEnd).toString();
+    }
+
+    public String opcode() {
+        return line.subSequence(opcodeStart, opcodeEnd).toString();
+    }
+
+    public String operand() {
+        return line.subSequence(operandStart, operandEnd).toString();
+    }
+
+    public String comment() {
+        return line.subSequence(commentStart, line.length()).toString();
+    }
+
+    public CharSequence getLine() {
+        return line;
+    }
+
+    public int labelStart() {
+        return labelStart;
+    }
+
+    public int labelEnd() {
+        return labelEnd;
+    }
+
+    public int opcodeStart() {
+        return opcodeStart;
+    }
+
+    public int opcodeEnd() {
+        return opcodeEnd;
+    }
+
+    public int operandStart() {
+        return operandStart;
+    }
+
+    public int operandEnd() {
+        return operandEnd;
+    }
+
+    public int commentStart() {
+        return commentStart;
+    }
+
+    // keyword has to be upper case
+    public static boolean equalsIgnoreCase(CharSequence source, int start, int end, String keyword) {
+        if (end - start != keyword.length())
+            return false;
+        for (int x = 0; x < keyword.length(); x++) {
+            if (Character.toUpperCase(source.charAt(start + x)) != keyword.charAt(x))
+                return false;
+        }
+        return true;
+    }
+}
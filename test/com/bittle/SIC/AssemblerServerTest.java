@@ -0,0 +1,50 @@
+package com.bittle.SIC;
+
+import com.bittle.SIC.utils.AssemblyCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AssemblerServerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // a request that throws is answered FAILED, and the next one is still served
+    @Test
+    public void keepsServingAfterAFailedRequest() throws IOException {
+        File bad = folder.newFile("bad.asm");
+        File good = new File(folder.getRoot(), "good.asm");
+        Files.copy(Paths.get("source.asm"), good.toPath());
+        File output = folder.newFolder("out");
+
+        AssemblerServer server = new AssemblerServer(output.getPath());
+        server.setCache(new AssemblyCache(folder.newFolder("cache")) {
+            @Override
+            public Entry load(String sourceFile, String contentHash, int expectedSymbols) {
+                if (sourceFile.endsWith("bad.asm"))
+                    throw new IllegalStateException("BROKEN CACHE ENTRY");
+                return super.load(sourceFile, contentHash, expectedSymbols);
+            }
+        });
+        StringWriter out = new StringWriter();
+        server.serve(new BufferedReader(new StringReader("ASSEMBLE " + bad.getPath() + "\n"
+                + "ASSEMBLE " + good.getPath() + "\nSTATS\n")), out);
+
+        String[] reply = out.toString().split("\n");
+        assertEquals("FAILED BROKEN CACHE ENTRY", reply[0]);
+        assertTrue(reply[1], reply[1].startsWith("OK "));
+        assertEquals(2, server.getRequests());
+        assertTrue(out.toString().contains("\nFAILED 1\n"));
+    }
+}
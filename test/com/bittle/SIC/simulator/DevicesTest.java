@@ -0,0 +1,50 @@
+package com.bittle.SIC.simulator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DevicesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // streams handed in are flushed but left open, device files are written and closed
+    @Test
+    public void closesOnlyTheFilesItOpened() throws IOException {
+        final boolean[] closed = new boolean[2];
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[]{7}) {
+            @Override
+            public void close() {
+                closed[1] = true;
+            }
+        };
+        File directory = folder.getRoot();
+        Devices devices = new Devices(directory);
+        devices.setOutput(5, out);
+        devices.setInput(0xF1, in);
+        devices.write(5, 'A');
+        devices.read(0xF1);
+        devices.write(6, 'B');
+        devices.close();
+
+        assertFalse(closed[0]);
+        assertFalse(closed[1]);
+        assertArrayEquals(new byte[]{'A'}, out.toByteArray());
+        assertArrayEquals(new byte[]{'B'}, Files.readAllBytes(new File(directory, "06.dev").toPath()));
+    }
+}
@@ -0,0 +1,49 @@
+package com.bittle.SIC.simulator;
+
+import com.bittle.SIC.Assembler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimulatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // START 0 makes M records, the simulator links the program instead of rejecting them
+    @Test
+    public void runsAStartZeroProgram() throws IOException {
+        File source = folder.newFile("zero.asm");
+        Files.write(source.toPath(), Arrays.asList(
+                "ZERO    START   0",
+                "FIRST  +LDCH    CHAR",
+                "        WD      DEVICE",
+                "        RSUB",
+                "CHAR    BYTE    C'Z'",
+                "DEVICE  BYTE    X'05'",
+                "        END     FIRST"), StandardCharsets.US_ASCII);
+        Assembler assembler = new Assembler(source.getPath(), folder.getRoot().getPath());
+        assembler.setVerbose(false);
+        assertTrue(assembler.assemble());
+        assertTrue(new String(Files.readAllBytes(new File(assembler.getObjectFile()).toPath()),
+                StandardCharsets.US_ASCII).contains("\nM"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Devices devices = new Devices(folder.getRoot());
+        devices.setOutput(5, out);
+        Simulator simulator = new Simulator(devices);
+        assertEquals(Machine.RETURNED, simulator.run(assembler.getObjectFile(), 1000));
+        devices.close();
+        assertArrayEquals(new byte[]{'Z'}, out.toByteArray());
+    }
+}
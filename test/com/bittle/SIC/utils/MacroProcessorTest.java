@@ -0,0 +1,84 @@
+package com.bittle.SIC.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MacroProcessorTest {
+    private static List<String> expand(String... source) throws IOException {
+        final Iterator<String> lines = Arrays.asList(source).iterator();
+        MacroProcessor processor = new MacroProcessor(new LineSource() {
+            @Override
+            public CharSequence readLine() {
+                return (lines.hasNext()) ? lines.next() : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        List<String> expanded = new ArrayList<>();
+        CharSequence line;
+        while ((line = processor.readLine()) != null)
+            expanded.add(line.toString());
+        return expanded;
+    }
+
+    // AALOOP is taken by the program, the expansion gets ABLOOP and branches to it
+    @Test
+    public void skipsLettersThatMakeADefinedLabel() throws IOException {
+        List<String> expanded = expand(
+                "PROG    START   1000",
+                "AALOOP  TD      DEVICE",
+                "WAIT    MACRO",
+                "$LOOP   TD      DEVICE",
+                "        JEQ     $LOOP",
+                "        MEND",
+                "        WAIT",
+                "        WAIT",
+                "DEVICE  BYTE    X'05'",
+                "        END     PROG");
+        assertEquals(Arrays.asList(
+                "PROG    START   1000",
+                "AALOOP  TD      DEVICE",
+                ".        WAIT",
+                "ABLOOP   TD      DEVICE",
+                "        JEQ     ABLOOP",
+                ".        WAIT",
+                "ACLOOP   TD      DEVICE",
+                "        JEQ     ACLOOP",
+                "DEVICE  BYTE    X'05'",
+                "        END     PROG"), expanded);
+    }
+
+    // a label another macro made from its argument is skipped too
+    @Test
+    public void skipsLabelsOfEarlierExpansions() throws IOException {
+        List<String> expanded = expand(
+                "ENTRY   MACRO   &NAME",
+                "&NAME   RSUB",
+                "        MEND",
+                "WAIT    MACRO",
+                "$LOOP   TD      DEVICE",
+                "        JEQ     $LOOP",
+                "        MEND",
+                "        ENTRY   ABLOOP",
+                "        WAIT",
+                "        WAIT");
+        assertEquals(Arrays.asList(
+                ".        ENTRY   ABLOOP",
+                "ABLOOP   RSUB",
+                ".        WAIT",
+                "AALOOP   TD      DEVICE",
+                "        JEQ     AALOOP",
+                ".        WAIT",
+                "ACLOOP   TD      DEVICE",
+                "        JEQ     ACLOOP"), expanded);
+    }
+}